@@ -0,0 +1,116 @@
+package me.timothy.bots.impl;
+
+import java.util.Random;
+
+import me.timothy.bots.Database;
+
+/**
+ * Measures the cost of {@link FlatFileDatabase#containsFullname(String)}
+ * as the number of remembered fullnames grows from 10 thousand to 10
+ * million. Both hits and misses are measured, since a fresh listing is
+ * almost entirely misses. The same is measured for 
+ * {@link PackedFullnameDatabase}, along with the heap each one retains.
+ * <br><br>
+ * Run with a large heap, i.e. {@code java -Xmx4g}, so the 10 million
+ * entry database fits.
+ * 
+ * @author Timothy
+ */
+public class FlatFileDatabaseBenchmark {
+	/** The database sizes that are measured */
+	private static final int[] SIZES = { 10_000, 100_000, 1_000_000, 10_000_000 };
+	
+	/** The number of lookups that are timed at each size */
+	private static final int LOOKUPS = 1_000_000;
+	
+	/**
+	 * Runs the benchmark, printing one row per database size
+	 * 
+	 * @param args unused
+	 */
+	public static void main(String[] args) {
+		Random random = new Random(1234);
+		
+		System.out.printf("%-24s %12s %16s %16s %16s%n", "database", "entries", "hit (ns/op)", "miss (ns/op)", "heap (bytes/op)");
+		for(int size : SIZES) {
+			run(new FlatFileDatabase(), size, random);
+			run(new PackedFullnameDatabase(), size, random);
+		}
+	}
+	
+	/**
+	 * Fills the database with the specified number of fullnames, then
+	 * times hits and misses against it and prints one row.
+	 * 
+	 * @param database the empty database
+	 * @param size the number of fullnames to add
+	 * @param random the source of ids to look up
+	 */
+	private static void run(Database database, int size, Random random) {
+		long heapBefore = usedHeap();
+		for(int i = 0; i < size; i++) {
+			database.addFullname(fullname(i));
+		}
+		long heapAfter = usedHeap();
+		
+		String[] hits = new String[LOOKUPS];
+		String[] misses = new String[LOOKUPS];
+		for(int i = 0; i < LOOKUPS; i++) {
+			hits[i] = fullname(random.nextInt(size));
+			misses[i] = fullname(size + random.nextInt(size));
+		}
+		
+		// warm up the jit before timing anything
+		time(database, hits);
+		time(database, misses);
+		
+		double hitNanos = time(database, hits);
+		double missNanos = time(database, misses);
+		System.out.printf("%-24s %12d %16.1f %16.1f %16.1f%n", database.getClass().getSimpleName(), size, 
+				hitNanos, missNanos, (heapAfter - heapBefore) / (double) size);
+	}
+	
+	/**
+	 * Gets the heap in use after a garbage collection
+	 * 
+	 * @return the used heap in bytes
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	/**
+	 * Looks up every id in the database and returns the mean
+	 * time per lookup.
+	 * 
+	 * @param database the database to look in
+	 * @param ids the ids to look up
+	 * @return the mean nanoseconds per lookup
+	 */
+	private static double time(Database database, String[] ids) {
+		int found = 0;
+		long start = System.nanoTime();
+		for(String id : ids) {
+			if(database.containsFullname(id))
+				found++;
+		}
+		long elapsed = System.nanoTime() - start;
+		
+		if(found < 0) // keeps the loop from being optimized away
+			System.out.println(found);
+		return elapsed / (double) ids.length;
+	}
+	
+	/**
+	 * Creates a comment fullname for the specified number
+	 * 
+	 * @param n the number
+	 * @return a comment fullname, i.e. t1_abc123
+	 */
+	private static String fullname(int n) {
+		return "t1_" + Integer.toString(n + 100_000_000, 36);
+	}
+}
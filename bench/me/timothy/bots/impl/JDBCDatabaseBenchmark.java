@@ -0,0 +1,139 @@
+package me.timothy.bots.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import me.timothy.bots.Database;
+
+/**
+ * Compares {@link JDBCDatabase} with {@link FlatFileDatabase} at 1
+ * and 10 million fullnames. For each database this times filling it
+ * (one flush per batch, like one flush per loop), checking a listing
+ * of 100 fullnames, half of them seen, through
+ * {@link Database#filterUnseen(List)}, and checking the same listing one
+ * {@link Database#containsFullname(String)} at a time.
+ * <br><br>
+ * Takes the JDBC url of an empty store as its only argument, and the
+ * driver must be on the classpath, i.e.
+ * {@code java -cp h2.jar:... JDBCDatabaseBenchmark jdbc:h2:./bench}.
+ * The store is filled cumulatively, so the 10 million row pass reuses
+ * the first million rows.
+ *
+ * @author Timothy
+ */
+public class JDBCDatabaseBenchmark {
+	/** The database sizes that are measured */
+	private static final int[] SIZES = { 1_000_000, 10_000_000 };
+
+	/** The number of fullnames added between flushes while filling */
+	private static final int FILL_BATCH = 10_000;
+
+	/** The number of fullnames in each simulated listing */
+	private static final int LISTING_SIZE = 100;
+
+	/** The number of listings that are timed */
+	private static final int LISTINGS = 1_000;
+
+	/**
+	 * Runs the benchmark, printing one row per database and size
+	 *
+	 * @param args the jdbc url of an empty store
+	 */
+	public static void main(String[] args) {
+		if(args.length != 1) {
+			System.err.println("Usage: JDBCDatabaseBenchmark <jdbc url>");
+			return;
+		}
+
+		try(JDBCDatabase jdbc = new JDBCDatabase(args[0])) {
+			FlatFileDatabase flat = new FlatFileDatabase();
+			Random random = new Random(1234);
+
+			System.out.printf("%-18s %12s %16s %20s %20s%n", "database", "entries", "fill (ms)", "filterUnseen (us/op)", "contains (us/op)");
+			int filled = 0;
+			for(int size : SIZES) {
+				long flatFill = fill(flat, filled, size);
+				long jdbcFill = fill(jdbc, filled, size);
+				filled = size;
+
+				List<List<String>> listings = new ArrayList<>(LISTINGS);
+				for(int i = 0; i < LISTINGS; i++) {
+					List<String> listing = new ArrayList<>(LISTING_SIZE);
+					for(int j = 0; j < LISTING_SIZE; j++) {
+						int n = j % 2 == 0 ? random.nextInt(size) : size + random.nextInt(size);
+						listing.add(fullname(n));
+					}
+					listings.add(listing);
+				}
+
+				report(flat, size, flatFill, listings);
+				report(jdbc, size, jdbcFill, listings);
+			}
+		}
+	}
+
+	/**
+	 * Adds the fullnames numbered from {@code from} to {@code to}, flushing
+	 * after every batch.
+	 *
+	 * @param database the database to fill
+	 * @param from the first number, inclusive
+	 * @param to the last number, exclusive
+	 * @return the time it took in milliseconds
+	 */
+	private static long fill(Database database, int from, int to) {
+		long start = System.nanoTime();
+		List<String> batch = new ArrayList<>(FILL_BATCH);
+		for(int i = from; i < to; i++) {
+			batch.add(fullname(i));
+			if(batch.size() == FILL_BATCH || i == to - 1) {
+				database.addAll(batch);
+				database.flush();
+				batch.clear();
+			}
+		}
+		return (System.nanoTime() - start) / 1_000_000;
+	}
+
+	/**
+	 * Times both ways of checking the listings and prints one row
+	 *
+	 * @param database the database
+	 * @param size the number of fullnames in the database
+	 * @param fillMs the time it took to fill the database
+	 * @param listings the listings to check
+	 */
+	private static void report(Database database, int size, long fillMs, List<List<String>> listings) {
+		int unseen = 0;
+		long start = System.nanoTime();
+		for(List<String> listing : listings) {
+			unseen += database.filterUnseen(listing).size();
+		}
+		double filterMicros = (System.nanoTime() - start) / 1000.0 / listings.size();
+
+		start = System.nanoTime();
+		for(List<String> listing : listings) {
+			for(String id : listing) {
+				if(!database.containsFullname(id))
+					unseen--;
+			}
+		}
+		double containsMicros = (System.nanoTime() - start) / 1000.0 / listings.size();
+
+		if(unseen != 0)
+			throw new IllegalStateException("filterUnseen and containsFullname disagree for " + database.getClass().getSimpleName());
+
+		System.out.printf("%-18s %12d %16d %20.1f %20.1f%n", database.getClass().getSimpleName(), size, fillMs, filterMicros, containsMicros);
+	}
+
+	/**
+	 * Creates a comment fullname for the specified number
+	 *
+	 * @param n the number
+	 * @return a comment fullname, i.e. t1_abc123
+	 */
+	private static String fullname(int n) {
+		return "t1_" + Integer.toString(n + 100_000_000, 36);
+	}
+}
@@ -0,0 +1,94 @@
+package me.timothy.bots.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Measures how long it takes to load 10 million fullnames from the
+ * text format and from a {@link FullnameSnapshot}, with and without
+ * compression, into both {@link FlatFileDatabase} and
+ * {@link PackedFullnameDatabase}.
+ * <br><br>
+ * Run with a large heap, i.e. {@code java -Xmx4g}, so the 10 million
+ * entry database fits.
+ *
+ * @author Timothy
+ */
+public class SnapshotLoadBenchmark {
+	/** The number of fullnames saved and loaded */
+	private static final int SIZE = 10_000_000;
+
+	/**
+	 * Runs the benchmark, printing one row per database and format
+	 *
+	 * @param args unused
+	 * @throws IOException if the temporary files cannot be created
+	 */
+	public static void main(String[] args) throws IOException {
+		File text = File.createTempFile("fullnames", ".txt");
+		File snapshot = File.createTempFile("fullnames", ".snap");
+		File compressed = File.createTempFile("fullnames", ".snapz");
+		try {
+			PackedFullnameDatabase source = new PackedFullnameDatabase();
+			for(int i = 0; i < SIZE; i++) {
+				source.addFullname(fullname(i));
+			}
+			source.save(text);
+			source.saveSnapshot(snapshot, false);
+			source.saveSnapshot(compressed, true);
+			source = null;
+
+			System.out.printf("%-24s %-18s %12s %12s%n", "database", "format", "bytes", "load (ms)");
+			report("text", text, false);
+			report("snapshot", snapshot, false);
+			report("compressed snapshot", compressed, false);
+			report("text", text, true);
+			report("snapshot", snapshot, true);
+			report("compressed snapshot", compressed, true);
+		}finally {
+			text.delete();
+			snapshot.delete();
+			compressed.delete();
+		}
+	}
+
+	/**
+	 * Loads the file into a new database and prints one row
+	 *
+	 * @param format the name of the format
+	 * @param file the file to load
+	 * @param packed true to load into a packed database, false for a flat file database
+	 */
+	private static void report(String format, File file, boolean packed) {
+		System.gc();
+		long start = System.nanoTime();
+		int size;
+		String name;
+		if(packed) {
+			PackedFullnameDatabase database = new PackedFullnameDatabase();
+			database.load(file);
+			size = database.size();
+			name = database.getClass().getSimpleName();
+		}else {
+			FlatFileDatabase database = new FlatFileDatabase();
+			database.load(file);
+			size = database.size();
+			name = database.getClass().getSimpleName();
+		}
+		long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+		if(size != SIZE)
+			throw new IllegalStateException(name + " loaded " + size + " of " + SIZE + " fullnames from the " + format);
+		System.out.printf("%-24s %-18s %12d %12d%n", name, format, file.length(), elapsedMs);
+	}
+
+	/**
+	 * Creates a comment fullname for the specified number
+	 *
+	 * @param n the number
+	 * @return a comment fullname, i.e. t1_abc123
+	 */
+	private static String fullname(int n) {
+		return "t1_" + Integer.toString(n + 100_000_000, 36);
+	}
+}
@@ -0,0 +1,390 @@
+package me.timothy.bots;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An append-only log of outbound actions that have been decided on but
+ * not yet performed. Actions are written, with a single fsync per batch,
+ * before any of them is performed, and each is marked complete once it
+ * has been. After a crash, {@link #open()} returns every action that was
+ * never marked complete so it can be performed again. An action may
+ * therefore be performed twice if the process dies right after it, but
+ * it is never lost.
+ * <br><br>
+ * A thing can also be claimed before its summons run, with
+ * {@link #claim(List)}. The claim is completed in the same write as the
+ * thing's actions, by {@link #begin(long, List)}, so after a crash a claim
+ * that is still open means the thing was never given any actions and
+ * should be evaluated again; see {@link #getClaims()}.
+ * <br><br>
+ * Each line is {@code P id type thing target args...} for a pending
+ * action, {@code T id thing} for a claimed thing, or {@code C id} for a
+ * completed action or claim, tab separated, with backslash escapes. A
+ * final line without a newline was torn by a crash and is ignored. Once
+ * enough actions and claims have completed the file is rewritten with
+ * only the open ones. Safe to share between threads.
+ *
+ * @author Timothy
+ */
+public class ActionJournal implements AutoCloseable {
+	/** The number of completed actions after which the journal is rewritten */
+	public static final int DEFAULT_COMPACT_AFTER = 10000;
+
+	/** The logger */
+	private Logger logger;
+
+	/** The journal file */
+	private File file;
+
+	/** The number of completed actions after which the journal is rewritten */
+	private int compactAfter;
+
+	/** The actions not yet completed, by id, in the order they were added */
+	private Map<Long, OutboundAction> pending;
+
+	/** The fullnames of things claimed but not yet given their actions, by id */
+	private Map<Long, String> claims;
+
+	/** The id of the next action */
+	private long nextId;
+
+	/** The actions completed since the journal was last rewritten */
+	private int completedSinceCompact;
+
+	/** The stream of the journal, used to fsync; null until open */
+	private FileOutputStream stream;
+
+	/** The buffered writer on top of stream */
+	private BufferedWriter writer;
+
+	/**
+	 * Creates a journal in the specified file that is rewritten after
+	 * the default number of completions. Nothing is read until
+	 * {@link #open()} is called.
+	 *
+	 * @param file the journal file
+	 */
+	public ActionJournal(File file) {
+		this(file, DEFAULT_COMPACT_AFTER);
+	}
+
+	/**
+	 * Creates a journal in the specified file. Nothing is read until
+	 * {@link #open()} is called.
+	 *
+	 * @param file the journal file
+	 * @param compactAfter the number of completed actions after which the journal is rewritten
+	 */
+	public ActionJournal(File file, int compactAfter) {
+		this.file = file;
+		this.compactAfter = compactAfter;
+		this.pending = new LinkedHashMap<>();
+		this.claims = new LinkedHashMap<>();
+
+		logger = LogManager.getLogger();
+	}
+
+	/**
+	 * Reads the journal, rewrites it with only the actions and claims that
+	 * were never completed, and starts appending to it.
+	 *
+	 * @return the actions that were never completed, by id, in the order they were added
+	 * @see #getClaims()
+	 */
+	public synchronized Map<Long, OutboundAction> open() {
+		closeWriter();
+		pending.clear();
+		claims.clear();
+		nextId = 1;
+
+		if(file.exists())
+			replay();
+
+		rewrite();
+		return new LinkedHashMap<>(pending);
+	}
+
+	/**
+	 * Records the actions as pending, and does not return until they are
+	 * on disk.
+	 *
+	 * @param actions the actions about to be performed
+	 * @return the id of each action, in the same order
+	 */
+	public synchronized List<Long> begin(List<OutboundAction> actions) {
+		return begin(-1, actions);
+	}
+
+	/**
+	 * Records the actions as pending and completes the claim that they are
+	 * for, and does not return until both are on disk. The claim is
+	 * completed even if there are no actions.
+	 *
+	 * @param claimId the id returned by {@link #claim(List)}, or -1 for none
+	 * @param actions the actions about to be performed
+	 * @return the id of each action, in the same order
+	 */
+	public synchronized List<Long> begin(long claimId, List<OutboundAction> actions) {
+		checkOpen();
+
+		List<Long> ids = new ArrayList<>(actions.size());
+		boolean completesClaim = claims.containsKey(claimId);
+		if(actions.isEmpty() && !completesClaim)
+			return ids;
+
+		try {
+			for(OutboundAction action : actions) {
+				long id = nextId++;
+				writer.append(formatPending(id, action)).append('\n');
+				pending.put(id, action);
+				ids.add(id);
+			}
+			if(completesClaim) {
+				writer.append("C\t").append(Long.toString(claimId)).append('\n');
+				claims.remove(claimId);
+				completedSinceCompact++;
+			}
+			writer.flush();
+			stream.getChannel().force(false);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return ids;
+	}
+
+	/**
+	 * Records that the things are about to be evaluated, and does not
+	 * return until that is on disk. Each claim is completed either by
+	 * {@link #begin(long, List)} or, if the thing turns out not to be
+	 * this process's to evaluate, by {@link #complete(long)}.
+	 *
+	 * @param things the fullnames of the things
+	 * @return the id of each claim, in the same order
+	 */
+	public synchronized List<Long> claim(List<String> things) {
+		checkOpen();
+
+		List<Long> ids = new ArrayList<>(things.size());
+		if(things.isEmpty())
+			return ids;
+
+		try {
+			for(String thing : things) {
+				long id = nextId++;
+				writer.append(formatClaim(id, thing)).append('\n');
+				claims.put(id, thing);
+				ids.add(id);
+			}
+			writer.flush();
+			stream.getChannel().force(false);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return ids;
+	}
+
+	/**
+	 * Records that the action has been performed, or that the claim is
+	 * given up. This is not fsynced; losing it only means the action is
+	 * performed again, or the thing evaluated again.
+	 *
+	 * @param id the id returned by {@link #begin(List)} or {@link #claim(List)}
+	 */
+	public synchronized void complete(long id) {
+		checkOpen();
+
+		if(pending.remove(id) == null && claims.remove(id) == null)
+			return;
+
+		try {
+			writer.append("C\t").append(Long.toString(id)).append('\n');
+			writer.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		completedSinceCompact++;
+		if(completedSinceCompact >= compactAfter)
+			rewrite();
+	}
+
+	/**
+	 * Gets the claims that have not been completed. Right after
+	 * {@link #open()}, these are the things whose summons were running
+	 * when the process died, which were never given any actions.
+	 *
+	 * @return the fullnames of the claimed things, by id
+	 */
+	public synchronized Map<Long, String> getClaims() {
+		return new LinkedHashMap<>(claims);
+	}
+
+	/**
+	 * Gets the number of actions that have not been completed
+	 *
+	 * @return the number of pending actions
+	 */
+	public synchronized int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * Flushes and closes the journal. Pending actions stay in it.
+	 */
+	@Override
+	public synchronized void close() {
+		closeWriter();
+	}
+
+	/**
+	 * Reads every complete line of the journal into pending.
+	 */
+	private void replay() {
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		int start = 0;
+		for(int i = 0; i < bytes.length; i++) {
+			if(bytes[i] == '\n') {
+				if(i > start)
+					parseLine(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+				start = i + 1;
+			}
+		}
+
+		if(start < bytes.length)
+			logger.warn("Ignoring " + (bytes.length - start) + " trailing bytes of partially written journal " + file);
+	}
+
+	/**
+	 * Applies a single line of the journal
+	 *
+	 * @param line the line, without the newline
+	 */
+	private void parseLine(String line) {
+		String[] parts = line.split("\t", 3);
+		try {
+			long id = Long.parseLong(parts[1]);
+			nextId = Math.max(nextId, id + 1);
+
+			if(parts[0].equals("C")) {
+				pending.remove(id);
+				claims.remove(id);
+				return;
+			}
+
+			if(parts[0].equals("T")) {
+				claims.put(id, OutboundAction.unescape(parts[2]));
+				return;
+			}
+
+			if(!parts[0].equals("P"))
+				throw new IllegalArgumentException("unknown record");
+
+			pending.put(id, OutboundAction.parse(parts[2]));
+		}catch(IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+			logger.warn("Ignoring unreadable line in journal " + file + ": " + line);
+		}
+	}
+
+	/**
+	 * Replaces the journal with one containing only the open claims and
+	 * pending actions, and starts appending to it. The new journal
+	 * replaces the old one atomically.
+	 */
+	private void rewrite() {
+		closeWriter();
+
+		File tmp = new File(file.getPath() + ".tmp");
+		try(FileOutputStream fos = new FileOutputStream(tmp);
+				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8))) {
+			for(Entry<Long, String> entry : claims.entrySet()) {
+				bw.append(formatClaim(entry.getKey(), entry.getValue())).append('\n');
+			}
+			for(Entry<Long, OutboundAction> entry : pending.entrySet()) {
+				bw.append(formatPending(entry.getKey(), entry.getValue())).append('\n');
+			}
+			bw.flush();
+			fos.getChannel().force(false);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			stream = new FileOutputStream(file, true);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+		completedSinceCompact = 0;
+	}
+
+	/**
+	 * Flushes and closes the writer, if there is one.
+	 */
+	private void closeWriter() {
+		if(writer == null)
+			return;
+
+		try {
+			writer.flush();
+			stream.getChannel().force(false);
+			writer.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			writer = null;
+			stream = null;
+		}
+	}
+
+	/**
+	 * Throws if the journal has not been opened
+	 */
+	private void checkOpen() {
+		if(writer == null)
+			throw new IllegalStateException("Journal " + file + " is not open");
+	}
+
+	/**
+	 * Formats the pending record for an action
+	 *
+	 * @param id the id of the action
+	 * @param action the action
+	 * @return the line, without the newline
+	 */
+	private static String formatPending(long id, OutboundAction action) {
+		return "P\t" + id + "\t" + action.format();
+	}
+
+	/**
+	 * Formats the record for a claimed thing
+	 *
+	 * @param id the id of the claim
+	 * @param thing the fullname of the thing
+	 * @return the line, without the newline
+	 */
+	private static String formatClaim(long id, String thing) {
+		return "T\t" + id + "\t" + OutboundAction.escape(thing);
+	}
+}
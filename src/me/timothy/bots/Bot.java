@@ -22,6 +22,10 @@ import org.json.simple.parser.ParseException;
  * and checking it, for example). 
  * <br><br>
  * This class does NOT ever sleep, so you may run into API restrictions.
+ * <br><br>
+ * Recent comments and submissions each advance a {@link ListingCursor},
+ * which counts the new things in every fetch and warns when a fetch
+ * did not reach back to the one before it.
  * 
  * @author Timothy
  */
@@ -35,6 +39,12 @@ public class Bot {
 
 	/** The subreddit. */
 	private String subreddit;
+	
+	/** Follows the newest comment fetched */
+	private ListingCursor commentCursor;
+	
+	/** Follows the newest submission fetched */
+	private ListingCursor submissionCursor;
 
 	/**
 	 * Creates the bot for the specified subreddit.
@@ -43,6 +53,8 @@ public class Bot {
 	 */
 	public Bot(String subreddit) {
 		this.subreddit = subreddit;
+		this.commentCursor = new ListingCursor("comments");
+		this.submissionCursor = new ListingCursor("submissions");
 
 		logger = LogManager.getLogger();
 	}
@@ -76,7 +88,10 @@ public class Bot {
 			throw new IllegalStateException("User is null"); 
 		}
 		
-		return RedditUtils.getRecentComments(user, subreddit);
+		Listing comments = RedditUtils.getRecentComments(user, subreddit);
+		if(comments != null)
+			commentCursor.advance(comments);
+		return comments;
 	}
 
 	/**
@@ -91,7 +106,10 @@ public class Bot {
 			throw new IllegalStateException("User is null"); 
 		}
 		
-		return RedditUtils.getSubmissions(user, subreddit, SortType.NEW);
+		Listing submissions = RedditUtils.getSubmissions(user, subreddit, SortType.NEW);
+		if(submissions != null)
+			submissionCursor.advance(submissions);
+		return submissions;
 	}
 
 	/**
@@ -121,15 +139,29 @@ public class Bot {
 	 * @throws IOException if an i/o exception occurs
 	 */
 	public boolean respondTo(Thing replyable, String message) throws IllegalStateException, IOException, ParseException {
+		return respondTo(replyable.fullname(), message);
+	}
+	
+	/**
+	 * Responds to the thing with the specified fullname with the specified message.
+	 * 
+	 * @param fullname the fullname of the thing to reply to
+	 * @param message the message
+	 * @return successful as we can be. returns true if we get TOO_OLD
+	 * @throws IllegalStateException the illegal state exception
+	 * @throws ParseException if the response from reddit is unparsable
+	 * @throws IOException if an i/o exception occurs
+	 */
+	public boolean respondTo(String fullname, String message) throws IllegalStateException, IOException, ParseException {
 		if(user == null) {
 			throw new IllegalStateException("null user");
 		}
-		CommentResponse resp = RedditUtils.comment(user, replyable.fullname(), message);
-		logger.trace("Responded to " + replyable.id());
+		CommentResponse resp = RedditUtils.comment(user, fullname, message);
+		logger.trace("Responded to " + fullname);
 		if(resp.getErrors() != null && resp.getErrors().size() > 0) {
 			List<?> errors = resp.getErrors();
 			
-			logger.trace("Got errors for reply to " + replyable.fullname() + ": " + errors.toString());
+			logger.trace("Got errors for reply to " + fullname + ": " + errors.toString());
 			
 			for(Object o : errors) {
 				if(o instanceof List) {
@@ -206,6 +238,24 @@ public class Bot {
 		return user;
 	}
 	
+	/**
+	 * Gets the cursor following recent comments
+	 * 
+	 * @return the comment cursor
+	 */
+	public ListingCursor getCommentCursor() {
+		return commentCursor;
+	}
+	
+	/**
+	 * Gets the cursor following recent submissions
+	 * 
+	 * @return the submission cursor
+	 */
+	public ListingCursor getSubmissionCursor() {
+		return submissionCursor;
+	}
+	
 	/**
 	 * Gets the subreddit that this bot is monitoring.
 	 * @return The subreddit this bot is monitoring
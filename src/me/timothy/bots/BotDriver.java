@@ -2,8 +2,24 @@ package me.timothy.bots;
 
 import java.io.IOException;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import me.timothy.bots.summon.CommentSummon;
 import me.timothy.bots.summon.LinkSummon;
@@ -33,14 +49,49 @@ import org.apache.logging.log4j.Logger;
  * logic for looping through the comments, submissions, and personal
  * messages looking for summons, and then applying them via the Summon's
  * implementation.
+ * <br><br>
+ * Every request to the reddit api first takes a token from the
+ * {@link RateLimiter}, so requests go out as fast as the budget 
+ * allows and only wait once it is spent.
+ * <br><br>
+ * By default comments, submissions and pm's are scanned one after
+ * another in each loop. Setting {@link #parallelPipelines} scans each
+ * of them on its own thread at its own interval instead. Either way a
+ * {@link PollScheduler} per listing fetches more often while listings
+ * come back full of new things and less often while they are quiet.
+ * {@link #shutdown()} stops either after the scans in progress finish.
  * 
  * @author Timothy
  * @see me.timothy.bots.summon.Summon
  */
 public class BotDriver implements Runnable {
-	/** Time in seconds between touching the reddit api */
+	/** Time in milliseconds to pause after a summon throws an exception */
 	protected static int BRIEF_PAUSE_MS = 5000;
 	
+	/** The number of reddit api requests allowed per minute */
+	protected static int REQUESTS_PER_MINUTE = 60;
+	
+	/** Time in milliseconds between loops before any activity has been seen */
+	protected static int LOOP_PAUSE_MS = 30000;
+	
+	/** The shortest time in milliseconds between fetches of a listing */
+	protected static int MIN_POLL_MS = 10000;
+	
+	/** The longest time in milliseconds between fetches of a listing */
+	protected static int MAX_POLL_MS = 120000;
+	
+	/** The number of threads performing outbound actions when they are asynchronous */
+	protected static int ACTION_THREADS = 4;
+	
+	/** The most attempts at one reddit request of an outbound action, or 0 for no limit */
+	protected static int ACTION_MAX_ATTEMPTS = 8;
+	
+	/** The most time in milliseconds spent retrying one reddit request of an outbound action, or 0 for no limit */
+	protected static long ACTION_MAX_ELAPSED_MS = 1000 * 60 * 60;
+	
+	/** The most time in milliseconds to wait for queued actions to finish when the bot stops */
+	protected static long ACTION_DRAIN_MS = 1000 * 60;
+	
 	/** The comment summons. */
 	protected final CommentSummon[] commentSummons;
 	
@@ -62,6 +113,9 @@ public class BotDriver implements Runnable {
 	/** The logger. */
 	protected Logger logger;
 	
+	/** Paces every request to the reddit api */
+	protected RateLimiter rateLimiter;
+	
 	/**
 	 *  A runnable that simply calls maybeLoginAgain
 	 *  
@@ -74,6 +128,84 @@ public class BotDriver implements Runnable {
 	 */
 	protected String userConfigPrefix;
 	
+	/**
+	 * If comments, submissions and pm's should be scanned by independent
+	 * pipelines rather than one after another. Requires a thread-safe
+	 * database, and summons that may be called from several threads.
+	 * Defaults to false.
+	 */
+	protected boolean parallelPipelines;
+	
+	/**
+	 * Held for reading by the comment, submission and pm pipelines and for
+	 * writing while the login is refreshed and the database flushed, so a
+	 * flush never runs in the middle of a scan
+	 */
+	protected ReadWriteLock pipelineLock;
+	
+	/** Runs the pipelines if parallelPipelines is set; created by runPipelines */
+	protected ScheduledExecutorService pipelines;
+	
+	/** Released by shutdown() to stop the bot */
+	protected CountDownLatch stopSignal;
+	
+	/** Decides when comments are fetched again */
+	protected PollScheduler commentPoll;
+	
+	/** Decides when submissions are fetched again */
+	protected PollScheduler submissionPoll;
+	
+	/** Decides when pm's are fetched again */
+	protected PollScheduler messagePoll;
+	
+	/**
+	 * If replies, flairs, reports, bans, unbans and pm's from summon responses
+	 * should be queued and performed by worker threads, so scanning continues
+	 * while they drain under the rate limiter. Actions for the same thing are
+	 * still performed in order. Defaults to false.
+	 */
+	protected boolean asyncActions;
+	
+	/** Performs queued actions if asyncActions is set; created on first use */
+	protected OutboundExecutor outbound;
+	
+	/**
+	 * If not null, every outbound action is recorded here before it is
+	 * performed and marked complete after, and actions left incomplete by
+	 * a crash are performed again when the bot is run. Things are also
+	 * claimed in it before they are added to the database, so a thing
+	 * whose summons were running during a crash is evaluated again.
+	 * Defaults to null.
+	 */
+	protected ActionJournal actionJournal;
+	
+	/** The claims in the journal of the things being evaluated, by fullname */
+	protected ConcurrentMap<String, Long> openClaims;
+	
+	/**
+	 * The claims the journal had left open after a crash, by fullname.
+	 * These things are in the database but were never given any actions,
+	 * so they are treated as unseen the next time a listing has them.
+	 */
+	protected ConcurrentMap<String, Long> unfinishedClaims;
+	
+	/**
+	 * If not null, outbound actions that are given up on are kept here
+	 * so they can be re-driven later. Defaults to null, which only logs
+	 * them.
+	 * 
+	 * @see #redriveDeadLetters()
+	 */
+	protected DeadLetterLog deadLetters;
+	
+	/**
+	 * How replies, flairs, reports, bans, unbans and pm's react to a
+	 * failure. Defaults to {@link RetryPolicies#reddit(RateLimiter)} on
+	 * the rate limiter. Fetching listings keeps the default policy, which
+	 * never gives up.
+	 */
+	protected RetryPolicy actionPolicy;
+	
 	/**
 	 * Creates a bot driver based on the specified database, configuration info,
 	 * rest client, and bot.
@@ -98,6 +230,8 @@ public class BotDriver implements Runnable {
 		this.bot = bot;
 
 		this.logger = LogManager.getLogger();
+		this.rateLimiter = new RateLimiter(REQUESTS_PER_MINUTE, 60000);
+		this.actionPolicy = RetryPolicies.reddit(rateLimiter);
 		
 		this.maybeLoginAgainRunnable = new Runnable() {
 			public void run() {
@@ -106,28 +240,77 @@ public class BotDriver implements Runnable {
 		};
 		
 		this.userConfigPrefix = "user.";
+		
+		this.openClaims = new ConcurrentHashMap<>();
+		this.unfinishedClaims = new ConcurrentHashMap<>();
+		
+		this.parallelPipelines = false;
+		this.pipelineLock = new ReentrantReadWriteLock(true);
+		this.stopSignal = new CountDownLatch(1);
+		this.commentPoll = new PollScheduler(LOOP_PAUSE_MS, MIN_POLL_MS, MAX_POLL_MS);
+		this.submissionPoll = new PollScheduler(LOOP_PAUSE_MS, MIN_POLL_MS, MAX_POLL_MS);
+		this.messagePoll = new PollScheduler(LOOP_PAUSE_MS, MIN_POLL_MS, MAX_POLL_MS);
 	}
 
 	/**
-	 * Runs the bot.
+	 * Runs the bot until {@link #shutdown()} is called.
 	 */
 	@Override
 	public void run() {
 		logger.trace("Logging in..");
 		login();
-		sleepFor(15000);
-
-		try {
-			while (true) {
-				doLoop();
-				
-				System.out.flush();
-				System.err.flush();
-				sleepFor(30000);
+		
+		replayJournal();
+		
+		if(parallelPipelines) {
+			runPipelines();
+		}else {
+			try {
+				while (true) {
+					doLoop();
+					
+					System.out.flush();
+					System.err.flush();
+					long pause = Math.min(commentPoll.getIntervalMs(), Math.min(submissionPoll.getIntervalMs(), messagePoll.getIntervalMs()));
+					logger.trace("Sleeping for " + pause + " milliseconds");
+					if(stopSignal.await(pause, TimeUnit.MILLISECONDS))
+						break;
+				}
+			} catch (Exception e) {
+				fail("Unexpected exception", e);
 			}
-		} catch (Exception e) {
-			fail("Unexpected exception", e);
 		}
+		
+		stopped();
+	}
+	
+	/**
+	 * Stops the bot. The scans in progress finish, then the database is
+	 * flushed and {@link #run()} returns. Safe to call from any thread,
+	 * more than once.
+	 */
+	public void shutdown() {
+		logger.info("Shutting down..");
+		stopSignal.countDown();
+		
+		ScheduledExecutorService executor;
+		synchronized(this) {
+			executor = pipelines;
+		}
+		if(executor != null)
+			executor.shutdown();
+	}
+	
+	/**
+	 * Called once the loop or the pipelines have stopped; waits for queued
+	 * actions to finish and flushes the database one last time.
+	 */
+	protected void stopped() {
+		drainOutbound();
+		
+		logger.trace("Flushing database..");
+		flushDatabase();
+		logger.info("Stopped");
 	}
 
 	/**
@@ -148,13 +331,124 @@ public class BotDriver implements Runnable {
 		
 		logger.trace("Scanning pm's..");
 		scanPersonalMessages();
+		
+		logger.trace("Flushing database..");
+		flushDatabase();
+	}
+	
+	/**
+	 * Runs comments, submissions and pm's as independent pipelines, each
+	 * scanning at the interval its own poll scheduler picks, so a pm never
+	 * waits behind a pass over the comments. A fourth pipeline refreshes the
+	 * login and flushes the database, holding the write lock of
+	 * {@link #pipelineLock} so it never overlaps a scan. Returns once
+	 * {@link #shutdown()} is called and the runs in progress finish;
+	 * terminates the program as if by fail() if any pipeline throws.
+	 */
+	protected void runPipelines() {
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(4);
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		synchronized(this) {
+			pipelines = executor;
+		}
+		if(stopSignal.getCount() == 0)
+			executor.shutdown();
+		
+		Lock scan = pipelineLock.readLock();
+		schedulePipeline(executor, "comments", commentPoll, scan, new Callable<Void>() {
+			@Override
+			public Void call() {
+				scanComments();
+				return null;
+			}
+		});
+		schedulePipeline(executor, "submissions", submissionPoll, scan, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				scanSubmissions();
+				return null;
+			}
+		});
+		schedulePipeline(executor, "pm's", messagePoll, scan, new Callable<Void>() {
+			@Override
+			public Void call() {
+				scanPersonalMessages();
+				return null;
+			}
+		});
+		schedulePipeline(executor, "database", new PollScheduler(MIN_POLL_MS), pipelineLock.writeLock(), new Callable<Void>() {
+			@Override
+			public Void call() {
+				maybeLoginAgain();
+				flushDatabase();
+				return null;
+			}
+		});
+		
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			logger.error(ex);
+			fail("Interrupted");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Runs the pipeline now, and again after each run finishes once the
+	 * interval picked by the poll scheduler has passed, until the executor
+	 * is shut down.
+	 * 
+	 * @param executor the executor to run the pipeline on
+	 * @param name the name of the pipeline, for logging
+	 * @param poll decides the time between the end of one run and the start of the next
+	 * @param lock held during each run
+	 * @param pipeline a single run of the pipeline
+	 */
+	protected void schedulePipeline(final ScheduledExecutorService executor, final String name, final PollScheduler poll, final Lock lock, final Callable<?> pipeline) {
+		try {
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					lock.lock();
+					try {
+						logger.trace("Running " + name + " pipeline..");
+						pipeline.call();
+					} catch (Exception e) {
+						fail("Unexpected exception in " + name + " pipeline", e);
+					} finally {
+						lock.unlock();
+					}
+					
+					try {
+						executor.schedule(this, poll.getIntervalMs(), TimeUnit.MILLISECONDS);
+					} catch (RejectedExecutionException ex) {
+						logger.trace("Stopped " + name + " pipeline");
+					}
+				}
+			}, 0, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException ex) {
+			logger.trace("Not starting " + name + " pipeline since the bot is shutting down");
+		}
+	}
+	
+	/**
+	 * Forgets expired fullnames and persists the database, including
+	 * summon state
+	 */
+	protected void flushDatabase() {
+		database.evictExpired();
+		database.flush();
+		database.flushState();
 	}
 	
 	/**
 	 * Checks if we need to refresh our access token, and if so,
-	 * purges it and logs in.
+	 * purges it and logs in. Only one thread does this at a time, so
+	 * pipelines never log in twice.
 	 */
-	protected void maybeLoginAgain()
+	protected synchronized void maybeLoginAgain()
 	{
 		logger.trace("Considering logging in again");
 		User user = bot.getUser();
@@ -184,10 +478,10 @@ public class BotDriver implements Runnable {
 				user.setLoginResponse(null);
 			}
 			
-			sleepFor(BRIEF_PAUSE_MS);
 			new Retryable<Boolean>("Refresh login token") {
 				@Override
 				protected Boolean runImpl() throws IOException, org.json.simple.parser.ParseException {
+					rateLimiter.acquire();
 					bot.loginReddit(config.getProperty(userConfigPrefix + "username"),
 							config.getProperty(userConfigPrefix + "password"),
 							config.getProperty(userConfigPrefix + "appClientID"),
@@ -196,7 +490,6 @@ public class BotDriver implements Runnable {
 				}
 			}.run();
 			logger.trace("Worked.");
-			sleepFor(BRIEF_PAUSE_MS);
 		}
 	}
 	
@@ -207,12 +500,110 @@ public class BotDriver implements Runnable {
 	 */
 	protected void scanComments() {
 		Listing comments = getRecentComments();
-		sleepFor(6000);
+		
+		if(comments == null) {
+			return;
+		}
 
+		Set<String> unseen = filterUnseen(comments);
+		recordPoll("comments", commentPoll, comments.numChildren(), unseen.size());
 		for (int i = 0; i < comments.numChildren(); i++) {
 			Comment comment = (Comment) comments.getChild(i);
-			handleComment(comment, false, false);
+			if(unseen.contains(comment.fullname()))
+				handleUnseenComment(comment, false, false);
+		}
+	}
+	
+	/**
+	 * Tells the poll scheduler for a listing how much of the last fetch
+	 * was new, so it can pick when to fetch it again.
+	 * 
+	 * @param name the name of the listing, for logging
+	 * @param poll the listing's poll scheduler
+	 * @param returned the number of things fetched
+	 * @param unseen the number of those that were not in the database
+	 */
+	protected void recordPoll(String name, PollScheduler poll, int returned, int unseen) {
+		long next = poll.record(returned, unseen);
+		logger.trace(String.format("%d of %d %s were new; next fetch in %d ms", unseen, returned, name, next));
+	}
+	
+	/**
+	 * Finds which things in the listing are not in the database, 
+	 * checking the whole listing with one call to the database. Things
+	 * with an unfinished claim count as not in the database.
+	 * 
+	 * @param listing the listing to check
+	 * @return the fullnames in the listing that are not in the database
+	 */
+	protected Set<String> filterUnseen(Listing listing) {
+		List<String> fullnames = new ArrayList<>(listing.numChildren());
+		for (int i = 0; i < listing.numChildren(); i++) {
+			fullnames.add(listing.getChild(i).fullname());
+		}
+		Set<String> result = new HashSet<>(database.filterUnseen(fullnames));
+		for(String fullname : fullnames) {
+			if(unfinishedClaims.containsKey(fullname))
+				result.add(fullname);
 		}
+		return result;
+	}
+	
+	/**
+	 * Adds every thing in the listing that is not yet in the database,
+	 * checking and adding the whole listing with one call to the database.
+	 * If several threads claim the same listing, each thing is claimed
+	 * by exactly one of them.
+	 * <br><br>
+	 * If there is a journal, the things not yet in the database are
+	 * claimed in it before they are added, and each claim stays open
+	 * until {@link #dispatch(String, List)} records the thing's actions.
+	 * A thing with an unfinished claim from before a crash is claimed
+	 * again without adding it.
+	 * 
+	 * @param fullnames the fullnames to claim
+	 * @return the fullnames that were claimed by this call
+	 */
+	protected Set<String> claimUnseen(List<String> fullnames) {
+		if(actionJournal == null)
+			return new HashSet<>(database.addAllIfAbsent(fullnames));
+		
+		Set<String> result = new HashSet<>();
+		List<String> candidates = new ArrayList<>(fullnames.size());
+		for(String fullname : fullnames) {
+			Long claimId = unfinishedClaims.remove(fullname);
+			if(claimId != null) {
+				openClaims.put(fullname, claimId);
+				result.add(fullname);
+			}else {
+				candidates.add(fullname);
+			}
+		}
+		
+		candidates = database.filterUnseen(candidates);
+		List<Long> claimIds = actionJournal.claim(candidates);
+		Set<String> added = new HashSet<>(database.addAllIfAbsent(candidates));
+		for(int i = 0; i < candidates.size(); i++) {
+			if(added.contains(candidates.get(i))) {
+				openClaims.put(candidates.get(i), claimIds.get(i));
+				result.add(candidates.get(i));
+			}else {
+				actionJournal.complete(claimIds.get(i));
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Claims a single thing, as {@link #claimUnseen(List)} does
+	 * 
+	 * @param fullname the fullname to claim
+	 * @return if this call claimed it
+	 */
+	protected boolean claim(String fullname) {
+		if(actionJournal == null)
+			return database.addIfAbsent(fullname);
+		return !claimUnseen(Collections.singletonList(fullname)).isEmpty();
 	}
 	
 	/**
@@ -229,6 +620,21 @@ public class BotDriver implements Runnable {
 				logger.trace(String.format("Skipping %s because the database contains that fullname", comment.fullname()));
 			return false;
 		}
+		return handleUnseenComment(comment, debug, silentMode);
+	}
+	
+	/**
+	 * Handles a single comment that was not in the database when it was
+	 * checked. The comment is only handled if this call is the one that
+	 * claims it, so concurrent handlers never both handle it. The actions
+	 * of every summon are dispatched together once they have all run.
+	 * 
+	 * @param comment the comment to handle
+	 * @param debug if debug messages should be printed
+	 * @param silentMode if this should not reply
+	 * @return if the comment was meaningfull
+	 */
+	protected boolean handleUnseenComment(Comment comment, boolean debug, boolean silentMode) {
 		if(!canInteractWithUsFast(comment.author())) {
 			if(debug)
 				logger.trace(String.format("Skipping %s because %s is not allowed to interact with us (fast)", comment.fullname(), comment.author()));
@@ -241,9 +647,15 @@ public class BotDriver implements Runnable {
 			return false;
 		}
 
-		database.addFullname(comment.fullname());
+		if(!claim(comment.fullname())) {
+			if(debug)
+				logger.trace(String.format("Skipping %s because it was added to the database by someone else", comment.fullname()));
+			return false;
+		}
 		boolean hadResponse = false;
 		boolean checkedCanInteractWith = false;
+		List<OutboundAction> actions = new ArrayList<>();
+		List<SummonResponse> responses = new ArrayList<>();
 		
 		SummonResponse response;
 		for(CommentSummon summon : commentSummons) {
@@ -260,6 +672,7 @@ public class BotDriver implements Runnable {
 				{
 					if(debug)
 						logger.trace(String.format("Skipping %s because %s is not allowed to interact with us (full)", comment.fullname(), comment.author()));
+					dispatch(comment.fullname(), Collections.<OutboundAction>emptyList());
 					onFailedInteractCheck(comment);
 					return false;
 				}
@@ -280,45 +693,16 @@ public class BotDriver implements Runnable {
 				}
 				hadResponse = true;
 				if(!silentMode) {
-					if(response.getResponseType() != ResponseType.SILENT) {
-						handleReply(comment, response.getResponseMessage());
-						sleepFor(BRIEF_PAUSE_MS);
-					}
-					
-					if(response.getLinkFlair() != null) {
-						handleFlair(comment.linkID(), response.getLinkFlair());
-						sleepFor(BRIEF_PAUSE_MS);
-					}
-					
-					if(response.getReportMessage() != null) {
-						handleReport(comment.fullname(), response.getReportMessage());
-						sleepFor(BRIEF_PAUSE_MS);
-					}
-					
-					if(response.shouldUnbanUser()) {
-						handleUnbanUserOnAllSubreddits(response.getUsernameToUnban());
-						sleepFor(BRIEF_PAUSE_MS);
-					}
-					
-					if(response.shouldBanUser())
-					{
-						handleBanUserOnAllSubreddits(response.getUsernameToBan(), response.getBanMessage(), response.getBanReason(), response.getBanNote());
-						sleepFor(BRIEF_PAUSE_MS);
-					}
-					
-					handlePMResponses(response);
-					
-					for (Entry<String, List<Object>> kvp : response.getSpecialHandlers().entrySet()) {
-						String key = kvp.getKey();
-						for(Object val : kvp.getValue()) {
-							handleSpecial(key, val);
-						}
-					}
+					actions.addAll(collectActions(comment.fullname(), response, comment.linkID(), true));
+					responses.add(response);
 				}
 			}else if(debug) {
 				logger.printf(Level.TRACE, "%s gave no response to %s", summon.getClass().getCanonicalName(), comment.fullname());
 			}
 		}
+		
+		dispatch(comment.fullname(), actions);
+		handleSpecials(responses);
 		return hadResponse;
 	}
 
@@ -334,15 +718,22 @@ public class BotDriver implements Runnable {
 	 */
 	protected void scanSubmissions() throws IOException, org.json.simple.parser.ParseException, ParseException {
 		Listing submissions = getRecentSubmissions();
-		sleepFor(BRIEF_PAUSE_MS);
 		
 		if(submissions == null) {
 			return;
 		}
 
+		List<String> fullnames = new ArrayList<>(submissions.numChildren());
+		for (int i = 0; i < submissions.numChildren(); i++) {
+			fullnames.add(submissions.getChild(i).fullname());
+		}
+		Set<String> unseen = claimUnseen(fullnames);
+		recordPoll("submissions", submissionPoll, fullnames.size(), unseen.size());
+		
 		for (int i = 0; i < submissions.numChildren(); i++) {
 			Link submission = (Link) submissions.getChild(i);
-			handleSubmission(submission, false);
+			if(unseen.contains(submission.fullname()))
+				handleUnseenSubmission(submission, false);
 		}
 	}
 	
@@ -353,14 +744,29 @@ public class BotDriver implements Runnable {
 	 * @param silentMode if the bot should not respond
 	 */
 	protected void handleSubmission(Link submission, boolean silentMode) {
-		if(database.containsFullname(submission.fullname()))
+		if(!claim(submission.fullname()))
 			return;
-		database.addFullname(submission.fullname());
 		
-		if(!canInteractWithUsFast(submission.author()))
+		handleUnseenSubmission(submission, silentMode);
+	}
+	
+	/**
+	 * Handles a single submission that has already been claimed. The
+	 * actions of every summon are dispatched together once they have all
+	 * run.
+	 * 
+	 * @param submission the submission the handle
+	 * @param silentMode if the bot should not respond
+	 */
+	protected void handleUnseenSubmission(Link submission, boolean silentMode) {
+		if(!canInteractWithUsFast(submission.author())) {
+			dispatch(submission.fullname(), Collections.<OutboundAction>emptyList());
 			return;
+		}
 
 		boolean checkedInteractWithUsFull = false;
+		List<OutboundAction> actions = new ArrayList<>();
+		List<SummonResponse> responses = new ArrayList<>();
 		SummonResponse response;
 		for(LinkSummon summon : submissionSummons) {
 			if(!summon.mightInteractWith(submission, database, config))
@@ -370,6 +776,7 @@ public class BotDriver implements Runnable {
 				checkedInteractWithUsFull = true;
 				
 				if(!canInteractWithUsFull(submission.author())) {
+					dispatch(submission.fullname(), Collections.<OutboundAction>emptyList());
 					onFailedInteractCheck(submission);
 					return;
 				}
@@ -384,37 +791,13 @@ public class BotDriver implements Runnable {
 			}
 			
 			if(response != null && !silentMode) {
-				if(response.getResponseType() != ResponseType.SILENT) {
-					handleReply(submission, response.getResponseMessage());
-					sleepFor(BRIEF_PAUSE_MS);
-				}
-				
-				if(response.getReportMessage() != null) {
-					handleReport(submission.fullname(), response.getReportMessage());
-					sleepFor(BRIEF_PAUSE_MS);
-				}
-				
-				if(response.shouldUnbanUser()) {
-					handleUnbanUserOnAllSubreddits(response.getUsernameToUnban());
-					sleepFor(BRIEF_PAUSE_MS);
-				}
-				
-				if(response.shouldBanUser())
-				{
-					handleBanUserOnAllSubreddits(response.getUsernameToBan(), response.getBanMessage(), response.getBanReason(), response.getBanNote());
-					sleepFor(BRIEF_PAUSE_MS);
-				}
-				
-				handlePMResponses(response);
-
-				for (Entry<String, List<Object>> kvp : response.getSpecialHandlers().entrySet()) {
-					String key = kvp.getKey();
-					for(Object val : kvp.getValue()) {
-						handleSpecial(key, val);
-					}
-				}
+				actions.addAll(collectActions(submission.fullname(), response, null, true));
+				responses.add(response);
 			}
 		}
+		
+		dispatch(submission.fullname(), actions);
+		handleSpecials(responses);
 	}
 
 	/**
@@ -424,75 +807,119 @@ public class BotDriver implements Runnable {
 	 */
 	protected void scanPersonalMessages() {
 		Listing messages = getRecentMessages();
+		
+		if(messages == null) {
+			return;
+		}
+		
 		markRead(messages);
-		sleepFor(BRIEF_PAUSE_MS);
+		
+		List<String> fullnames = new ArrayList<>(messages.numChildren());
+		for(int i = 0; i < messages.numChildren(); i++) {
+			Thing m = messages.getChild(i);
+			if(m instanceof Message)
+				fullnames.add(m.fullname());
+		}
+		Set<String> unseen = claimUnseen(fullnames);
+		recordPoll("pm's", messagePoll, fullnames.size(), unseen.size());
+		
 		for(int i = 0; i < messages.numChildren(); i++) {
 			Thing m = (Thing) messages.getChild(i);
-			handlePM(m, false);
+			logPM(m);
+			
+			if(m instanceof Message) {
+				if(!unseen.contains(m.fullname())) {
+					logger.trace("Skipping message " + m.fullname() + " since I already have it in my database");
+					continue;
+				}
+				handleUnseenMessage((Message) m, false);
+			}
 		}
 	}
-
+	
 	/**
-	 * Handles a single message in our inbox
+	 * Logs a single thing in our inbox
 	 * 
-	 * @param m the pm to handle
-	 * @param silentMode if this should not respond
+	 * @param m the comment reply or pm
 	 */
-	protected void handlePM(Thing m, boolean silentMode) {
+	protected void logPM(Thing m) {
 		if(m instanceof Comment) {
 			Comment mess = (Comment) m;
 			logger.info(mess.author() + " replied to me with:\n" + mess.body());
 		}else if(m instanceof Message) {
 			Message mess = (Message) m;
 			logger.info(mess.author() + " pm'd me:\n" + mess.body());
+		}
+	}
 
-			if(database.containsFullname(mess.fullname())) {
+	/**
+	 * Handles a single message in our inbox
+	 * 
+	 * @param m the pm to handle
+	 * @param silentMode if this should not respond
+	 */
+	protected void handlePM(Thing m, boolean silentMode) {
+		logPM(m);
+		
+		if(m instanceof Message) {
+			Message mess = (Message) m;
+			if(!claim(mess.fullname())) {
 				logger.trace("Skipping message " + mess.fullname() + " since I already have it in my database");
 				return;
 			}
-			database.addFullname(mess.fullname());
-			
-			if(mess.author() == null) {
-				logger.trace("That message was sent with a null author so ignoring it");
-				return;
-			}
 			
-			if(!canInteractWithUsFull(mess.author()))
-			{
-				logger.trace("Skipping message " + mess.fullname() + " since " + mess.author() + " can't interact with us");
-				onFailedInteractCheck(m);
-				return;
+			handleUnseenMessage(mess, silentMode);
+		}
+	}
+	
+	/**
+	 * Handles a single message that has already been claimed. The actions
+	 * of every summon are dispatched together once they have all run.
+	 * 
+	 * @param mess the message to handle
+	 * @param silentMode if this should not respond
+	 */
+	protected void handleUnseenMessage(Message mess, boolean silentMode) {
+		if(mess.author() == null) {
+			logger.trace("That message was sent with a null author so ignoring it");
+			dispatch(mess.fullname(), Collections.<OutboundAction>emptyList());
+			return;
+		}
+		
+		if(!canInteractWithUsFull(mess.author()))
+		{
+			logger.trace("Skipping message " + mess.fullname() + " since " + mess.author() + " can't interact with us");
+			dispatch(mess.fullname(), Collections.<OutboundAction>emptyList());
+			onFailedInteractCheck(mess);
+			return;
+		}
+		
+		List<OutboundAction> actions = new ArrayList<>();
+		List<SummonResponse> responses = new ArrayList<>();
+		SummonResponse response;
+		for(PMSummon summon : pmSummons) {
+			response = null;
+			try {
+				response = summon.handlePM(mess, database, config);
+			}catch(Exception ex) {
+				logger.catching(ex);
+				sleepFor(BRIEF_PAUSE_MS);
 			}
 			
-			SummonResponse response;
-			for(PMSummon summon : pmSummons) {
-				response = null;
-				try {
-					response = summon.handlePM(mess, database, config);
-				}catch(Exception ex) {
-					logger.catching(ex);
-					sleepFor(BRIEF_PAUSE_MS);
-				}
-				
-				if(response != null && !silentMode && response.getResponseType() != ResponseType.SILENT) {
-					handleReply(mess, response.getResponseMessage());
-					sleepFor(BRIEF_PAUSE_MS);
-					
-					handlePMResponses(response);
-
-					for (Entry<String, List<Object>> kvp : response.getSpecialHandlers().entrySet()) {
-						String key = kvp.getKey();
-						for(Object val : kvp.getValue()) {
-							handleSpecial(key, val);
-						}
-					}
-				}
+			if(response != null && !silentMode && response.getResponseType() != ResponseType.SILENT) {
+				actions.addAll(collectActions(mess.fullname(), response, null, false));
+				responses.add(response);
 			}
 		}
+		
+		dispatch(mess.fullname(), actions);
+		handleSpecials(responses);
 	}
 
 	/**
 	 * Marks the specified messages as read. Utilizes exponential-backoff
+	 * in the background, so this returns after the first attempt and a
+	 * failure does not hold up the scan.
 	 * 
 	 * @param messages the messages
 	 * @see me.timothy.bots.Retryable
@@ -515,13 +942,13 @@ public class BotDriver implements Runnable {
 				boolean succ = false;
 				if(ids.length() != 0) {
 					logger.debug("Marking " + ids + " as read");
+					rateLimiter.acquire();
 					succ = bot.setReadMessage(ids);
-					sleepFor(BRIEF_PAUSE_MS);
 				}
 				return succ;
 			}
 			
-		}.run();
+		}.runAsync();
 	}
 
 	/**
@@ -531,6 +958,7 @@ public class BotDriver implements Runnable {
 	protected void login() {
 		boolean success = false;
 		try {
+			rateLimiter.acquire();
 			success = bot.loginReddit(config.getProperty(userConfigPrefix + "username"),
 					config.getProperty(userConfigPrefix + "password"),
 					config.getProperty(userConfigPrefix + "appClientID"),
@@ -552,6 +980,7 @@ public class BotDriver implements Runnable {
 		return new Retryable<Listing>("getRecentComments", maybeLoginAgainRunnable) {
 			@Override
 			protected Listing runImpl() throws Exception {
+				rateLimiter.acquire();
 				return bot.getRecentComments();
 			}
 		}.run();
@@ -565,20 +994,36 @@ public class BotDriver implements Runnable {
 	 * @see me.timothy.bots.Retryable
 	 */
 	protected void handleReply(final Thing replyable, final String response) {
+		handleReply(replyable.fullname(), response);
+	}
+
+	/**
+	 * Replies to the thing with the specified fullname, utilizing exponential back-off.
+	 *
+	 * @param fullname the fullname of the thing to reply to
+	 * @param response the thing to reply with
+	 * @throws RuntimeException if the retry budget runs out
+	 * @see me.timothy.bots.Retryable
+	 */
+	protected void handleReply(final String fullname, final String response) {
 		if(response == null) {
 			logger.trace("Ignoring empty response");
 			return;
 		}
 		
-		new Retryable<Boolean>("handleReply", maybeLoginAgainRunnable) {
+		Boolean result = new Retryable<Boolean>("handleReply", maybeLoginAgainRunnable) {
 
 			@Override
 			protected Boolean runImpl() throws Exception {
-				bot.respondTo(replyable, response);
+				rateLimiter.acquire();
+				bot.respondTo(fullname, response);
 				return Boolean.TRUE;
 			}
 			
-		}.run();
+		}.withBudget(ACTION_MAX_ATTEMPTS, ACTION_MAX_ELAPSED_MS).withPolicy(actionPolicy).run();
+		
+		if(result == null)
+			throw new RuntimeException("Gave up replying to " + fullname);
 	}
 
 	/**
@@ -591,6 +1036,7 @@ public class BotDriver implements Runnable {
 		return new Retryable<Listing>("getRecentSubmissions", maybeLoginAgainRunnable) {
 			@Override
 			protected Listing runImpl() throws Exception {
+				rateLimiter.acquire();
 				return bot.getRecentSubmissions();
 			}
 		}.run();
@@ -606,6 +1052,7 @@ public class BotDriver implements Runnable {
 		return new Retryable<Listing>("getRecentMessages", maybeLoginAgainRunnable) {
 			@Override
 			protected Listing runImpl() throws Exception {
+				rateLimiter.acquire();
 				return bot.getUnreadMessages();
 			}
 		}.run();
@@ -615,11 +1062,13 @@ public class BotDriver implements Runnable {
 	 * Flairs a link
 	 * @param linkId the link to flair
 	 * @param flair the css class of the flair
+	 * @throws RuntimeException if the retry budget runs out
 	 */
 	protected void handleFlair(final String linkId, final String flair) {
-		new Retryable<Boolean>("handleFlair", maybeLoginAgainRunnable) {
+		Boolean result = new Retryable<Boolean>("handleFlair", maybeLoginAgainRunnable) {
 			@Override
 			protected Boolean runImpl() throws Exception {
+				rateLimiter.acquire();
 				try {
 					RedditUtils.flairLink(bot.getUser(), linkId, flair);
 				}catch(IOException ex) {
@@ -632,24 +1081,32 @@ public class BotDriver implements Runnable {
 				}
 				return Boolean.TRUE;
 			}
-		}.run();
+		}.withBudget(ACTION_MAX_ATTEMPTS, ACTION_MAX_ELAPSED_MS).withPolicy(actionPolicy).run();
+		
+		if(result == null)
+			throw new RuntimeException("Gave up flairing " + linkId + " with " + flair);
 	}
 	
 	/**
 	 * Reports the fullname with the specified message
 	 * @param thingFullname the fullname of the thing to report
 	 * @param reportMessage the message to report the thing with
+	 * @throws RuntimeException if the retry budget runs out
 	 */
 	protected void handleReport(final String thingFullname, final String reportMessage) {
-		new Retryable<Boolean>("handleReport", maybeLoginAgainRunnable) {
+		Boolean result = new Retryable<Boolean>("handleReport", maybeLoginAgainRunnable) {
 
 			@Override
 			protected Boolean runImpl() throws Exception {
+				rateLimiter.acquire();
 				RedditUtils.report(bot.getUser(), thingFullname, reportMessage);
 				return Boolean.TRUE;
 			}
 			
-		}.run();
+		}.withBudget(ACTION_MAX_ATTEMPTS, ACTION_MAX_ELAPSED_MS).withPolicy(actionPolicy).run();
+		
+		if(result == null)
+			throw new RuntimeException("Gave up reporting " + thingFullname);
 	}
 	
 	/**
@@ -660,6 +1117,7 @@ public class BotDriver implements Runnable {
 	 * @param banMessage the message to pass to the user
 	 * @param banReason the predefined string constants (in the subreddit options) for the "reason".
 	 * @param banNote the note to other moderators, less than 100 characters.
+	 * @throws RuntimeException if the retry budget runs out on any subreddit
 	 */
 	protected void handleBanUserOnAllSubreddits(final String userToBan, final String banMessage, final String banReason, final String banNote)
 	{
@@ -671,17 +1129,22 @@ public class BotDriver implements Runnable {
 		
 		String[] subreddits = bot.getSubreddits();
 		
-		boolean failure = false;
+		boolean failure = false, gaveUp = false;
 		for(final String subreddit : subreddits) {
 			Boolean result = handleBanUser(subreddit, userToBan, banMessage, banReason, banNote);
 			
 			if(result != Boolean.TRUE)
 				failure = true;
+			if(result == null)
+				gaveUp = true;
 		}
 		
 		if(!failure) {
 			onSuccessfullyBannedUser(userToBan);
 		}
+		
+		if(gaveUp)
+			throw new RuntimeException("Gave up banning " + userToBan + " on at least one subreddit");
 	}
 	
 	/**
@@ -704,6 +1167,7 @@ public class BotDriver implements Runnable {
 			@Override
 			protected Boolean runImpl() throws Exception {
 				if(!definitelyNotBannedThere) {
+					rateLimiter.acquire();
 					BannedUsersListing banListing = RedditUtils.getBannedUsersForSubredditByName(subreddit, userToBan, bot.getUser());
 					if(banListing != null && banListing.numChildren() > 0) {
 						logger.info(String.format("Failed to ban %s from %s - he was already banned there", userToBan, subreddit));
@@ -711,12 +1175,14 @@ public class BotDriver implements Runnable {
 					}
 					
 					definitelyNotBannedThere = true;
-					sleepFor(BRIEF_PAUSE_MS);
 				}
 				
 				if(!definitelyNotModeratorThere) {
 					Boolean isMod = isModerator(subreddit, userToBan);
-					if((isMod == null || isMod.booleanValue())) {
+					if(isMod == null)
+						throw new RuntimeException("Gave up checking if " + userToBan + " is a moderator on /r/" + subreddit);
+					
+					if(isMod.booleanValue()) {
 						logger.info(String.format("Failed to ban %s from %s - he is a moderator there", userToBan, subreddit));
 						return Boolean.FALSE; // never attempt to ban moderators
 					}
@@ -724,13 +1190,13 @@ public class BotDriver implements Runnable {
 					definitelyNotModeratorThere = true;
 				}
 				
+				rateLimiter.acquire();
 				RedditUtils.banFromSubreddit(subreddit, userToBan, banMessage, banReason, banNote, bot.getUser());
 				logger.info(String.format("Banned %s from %s - banMessage=%s, banReason=%s, banNote=%s", userToBan, subreddit, banMessage, banReason, banNote));
-				sleepFor(BRIEF_PAUSE_MS);
 				
 				return Boolean.TRUE;
 			}
-		}.run();
+		}.withBudget(ACTION_MAX_ATTEMPTS, ACTION_MAX_ELAPSED_MS).withPolicy(actionPolicy).run();
 	}
 	
 	/**
@@ -739,19 +1205,18 @@ public class BotDriver implements Runnable {
 	 * @param subreddit the subreddit
 	 * @param user the user
 	 * @return Boolean.TRUE if user is a moderator on subreddit, Boolean.FALSE if the user is not a moderator on subreddit,
-	 * and null if we got too many exceptions from reddit when trying to figure it out, so we don't know
+	 * and null if the retry budget ran out trying to figure it out, so we don't know
 	 */
 	protected Boolean isModerator(final String subreddit, final String user) {
 		return new Retryable<Boolean>("isModerator - " + user + " on /r/" + subreddit, maybeLoginAgainRunnable) {
 
 			@Override
 			protected Boolean runImpl() throws Exception {
+				rateLimiter.acquire();
 				try {
 					ModeratorListing modListing = RedditUtils.getModeratorForSubredditByName(subreddit, user, bot.getUser());
-					sleepFor(BRIEF_PAUSE_MS);
 					return modListing != null && modListing.numChildren() > 0;
 				} catch (HttpUnexpectedStatusCodeException e) {
-					sleepFor(BRIEF_PAUSE_MS);
 					if (e.statusCode == 401) {
 						// We don't have permission to view the moderators list on that subreddit,
 						// likely because the subreddit is private. The only reasonable answer for
@@ -767,7 +1232,7 @@ public class BotDriver implements Runnable {
 				}
 			}
 			
-		}.run();
+		}.withBudget(ACTION_MAX_ATTEMPTS, ACTION_MAX_ELAPSED_MS).withPolicy(actionPolicy).run();
 	}
 	
 	/**
@@ -791,45 +1256,52 @@ public class BotDriver implements Runnable {
 		return new Retryable<Boolean>("handleUnban - " + userToUnban + " on /r/" + subreddit, maybeLoginAgainRunnable) {
 			@Override
 			protected Boolean runImpl() throws Exception {
+				rateLimiter.acquire();
 				BannedUsersListing listing = RedditUtils.getBannedUsersForSubredditByName(subreddit, userToUnban, bot.getUser());
 				if(listing == null || listing.numChildren() == 0) {
 					logger.info(String.format("Failed to unban %s from %s - he was not banned there", userToUnban, subreddit));
 					return Boolean.FALSE; // not banned
 				}
 				
-				sleepFor(BRIEF_PAUSE_MS);
 
+				rateLimiter.acquire();
 				RedditUtils.unbanFromSubreddit(subreddit, userToUnban, bot.getUser());
 				logger.info(String.format("Unbanned %s from %s", userToUnban, subreddit));
 				
-				sleepFor(BRIEF_PAUSE_MS);
 				
 				return Boolean.TRUE;
 			}
-		}.run();
+		}.withBudget(ACTION_MAX_ATTEMPTS, ACTION_MAX_ELAPSED_MS).withPolicy(actionPolicy).run();
 	}
 	
 	/**
 	 * Unbans the specified user from all the subreddits this bot monitors
 	 * 
 	 * @param userToUnban the username to unban
+	 * @throws RuntimeException if the retry budget runs out on any subreddit
 	 */
 	protected void handleUnbanUserOnAllSubreddits(final String userToUnban)
 	{
 		String[] subreddits = bot.getSubreddits();
 		
-		boolean failure = false;
+		boolean failure = false, gaveUp = false;
 		for(final String subreddit : subreddits) {
 			Boolean result = handleUnbanUser(subreddit, userToUnban);
 			
 			if(result != Boolean.TRUE) {
 				failure = true;
 			}
+			if(result == null) {
+				gaveUp = true;
+			}
 		}
 		
 		if(!failure) {
 			onSuccessfullyUnbanUser(userToUnban);
 		}
+		
+		if(gaveUp)
+			throw new RuntimeException("Gave up unbanning " + userToUnban + " on at least one subreddit");
 	}
 	
 	/**
@@ -941,6 +1413,7 @@ public class BotDriver implements Runnable {
 
 			@Override
 			protected Boolean runImpl() throws Exception {
+				rateLimiter.acquire();
 				Errorable errors = bot.sendPM(to, title, message);
 				List<?> errorsList = errors.getErrors();
 				if(errorsList != null && !errorsList.isEmpty()) {
@@ -950,7 +1423,7 @@ public class BotDriver implements Runnable {
 				return true;
 			}
 
-		}.run();
+		}.withBudget(ACTION_MAX_ATTEMPTS, ACTION_MAX_ELAPSED_MS).withPolicy(actionPolicy).run();
 	}
 	
 	/**
@@ -959,13 +1432,14 @@ public class BotDriver implements Runnable {
 	 * @param subreddit the subreddit to send the message to
 	 * @param title the title of the message
 	 * @param message the message to send
-	 * @return NULL if we received too many errors, true if we successfully posted, false if the request is not valid
+	 * @return NULL if the retry budget ran out, true if we successfully posted, false if the request is not valid
 	 */
 	protected Boolean submitSelf(final String subreddit, final String title, final String message) {
 		return new Retryable<Boolean>("Submit Self", maybeLoginAgainRunnable) {
 
 			@Override
 			protected Boolean runImpl() throws Exception {
+				rateLimiter.acquire();
 				Boolean botRes = bot.submitSelf(subreddit, title, message);
 				if(botRes == Boolean.FALSE) {
 					return null;
@@ -977,26 +1451,251 @@ public class BotDriver implements Runnable {
 				}
 			}
 
-		}.run();
+		}.withBudget(ACTION_MAX_ATTEMPTS, ACTION_MAX_ELAPSED_MS).withPolicy(actionPolicy).run();
 	}
 	
 	/**
-	 * Handles the PMResponses that are contained in the summon response, if any,
-	 * by sending pms to the specified users with the specified title and content.
+	 * Lists the actions the summon response asks for, in the order they
+	 * should be performed. Special handlers are not included.
 	 * 
-	 * @param response the response which might have pmresponses.
+	 * @param thing the fullname of the thing the response is to
+	 * @param response the response
+	 * @param flairLinkId the link to flair if the response has a flair, or null to never flair
+	 * @param moderate if reports, bans and unbans should be included
+	 * @return the actions
 	 */
-	protected void handlePMResponses(SummonResponse response) {
-		if(response.getPMResponses() == null || response.getPMResponses().size() == 0)
-			return;
+	protected List<OutboundAction> collectActions(String thing, SummonResponse response, String flairLinkId, boolean moderate) {
+		List<OutboundAction> actions = new ArrayList<>();
+		if(response.getResponseType() != ResponseType.SILENT) {
+			actions.add(OutboundAction.reply(thing, response.getResponseMessage()));
+		}
 		
-		logger.printf(Level.INFO, "Summon response generated %d pm responses.", response.getPMResponses().size());
-		for(PMResponse pmResponse : response.getPMResponses())
-		{
-			logger.printf(Level.INFO, "Sending pm response (to=%s, title=%s, message=%s)", pmResponse.getTo(), pmResponse.getTitle(), pmResponse.getText());
+		if(flairLinkId != null && response.getLinkFlair() != null) {
+			actions.add(OutboundAction.flair(thing, flairLinkId, response.getLinkFlair()));
+		}
+		
+		if(moderate) {
+			if(response.getReportMessage() != null) {
+				actions.add(OutboundAction.report(thing, response.getReportMessage()));
+			}
+			
+			if(response.shouldUnbanUser()) {
+				actions.add(OutboundAction.unban(thing, response.getUsernameToUnban()));
+			}
 			
-			sendMessage(pmResponse.getTo(), pmResponse.getTitle(), pmResponse.getText());
-			sleepFor(BRIEF_PAUSE_MS);
+			if(response.shouldBanUser()) {
+				actions.add(OutboundAction.ban(thing, response.getUsernameToBan(), response.getBanMessage(), response.getBanReason(), response.getBanNote()));
+			}
+		}
+		
+		if(response.getPMResponses() != null && response.getPMResponses().size() > 0) {
+			logger.printf(Level.INFO, "Summon response generated %d pm responses.", response.getPMResponses().size());
+			for(PMResponse pmResponse : response.getPMResponses()) {
+				actions.add(OutboundAction.pm(thing, pmResponse.getTo(), pmResponse.getTitle(), pmResponse.getText()));
+			}
+		}
+		return actions;
+	}
+	
+	/**
+	 * Performs the actions of a claimed thing in order, and finishes its
+	 * claim. Must be called exactly once per claimed thing, even with no
+	 * actions. If there is a journal the actions are recorded in it first,
+	 * in the same write that completes the thing's claim, so after a crash
+	 * the thing either has its actions replayed or is evaluated again. If
+	 * asyncActions is set the actions are queued behind any earlier actions
+	 * for the same thing and this returns right away; otherwise they are
+	 * performed on this thread.
+	 * 
+	 * @param thing the fullname of the thing the actions are for
+	 * @param actions the actions, possibly none
+	 */
+	protected void dispatch(String thing, List<OutboundAction> actions) {
+		List<Long> ids = null;
+		if(actionJournal != null) {
+			Long claimId = openClaims.remove(thing);
+			ids = actionJournal.begin(claimId != null ? claimId : -1, actions);
+		}
+		
+		for(int i = 0; i < actions.size(); i++) {
+			schedule(thing, actions.get(i), ids != null ? ids.get(i) : -1);
+		}
+	}
+	
+	/**
+	 * Runs the special handlers of each response, in order
+	 * 
+	 * @param responses the responses
+	 */
+	protected void handleSpecials(List<SummonResponse> responses) {
+		for(SummonResponse response : responses) {
+			for (Entry<String, List<Object>> kvp : response.getSpecialHandlers().entrySet()) {
+				String key = kvp.getKey();
+				for(Object val : kvp.getValue()) {
+					handleSpecial(key, val);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Performs the action now, or queues it behind any earlier actions for
+	 * the same thing if asyncActions is set, then marks it complete in the
+	 * journal.
+	 * 
+	 * @param thing the fullname of the thing the action is for
+	 * @param action the action
+	 * @param journalId the id of the action in the journal, or -1 if it is not journaled
+	 */
+	protected void schedule(String thing, final OutboundAction action, final long journalId) {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					perform(action);
+				}catch(RuntimeException ex) {
+					logger.catching(ex);
+					deadLetter(action, ex);
+				}
+				if(journalId >= 0)
+					actionJournal.complete(journalId);
+			}
+		};
+		
+		if(asyncActions) {
+			getOutbound().submit(thing, task);
+		}else {
+			task.run();
+		}
+	}
+	
+	/**
+	 * Keeps an action that failed for good in the dead letters, if there
+	 * are any, so it does not hold up the actions behind it.
+	 * 
+	 * @param action the action
+	 * @param cause why it failed
+	 */
+	protected void deadLetter(OutboundAction action, Exception cause) {
+		if(deadLetters == null) {
+			logger.error("Dropping " + action + " after " + cause);
+			return;
+		}
+		
+		logger.warn("Moving " + action + " to the dead letters after " + cause);
+		deadLetters.add(action, cause.toString());
+	}
+	
+	/**
+	 * Performs every dead letter again. They are recorded in the journal,
+	 * if there is one, before they are removed from the dead letters.
+	 * Should only be called once the bot is running.
+	 */
+	public void redriveDeadLetters() {
+		if(deadLetters == null)
+			return;
+		
+		List<OutboundAction> actions = deadLetters.take();
+		List<Long> ids = actionJournal != null ? actionJournal.begin(actions) : null;
+		deadLetters.release();
+		
+		logger.printf(Level.INFO, "Re-driving %d dead letters", actions.size());
+		for(int i = 0; i < actions.size(); i++) {
+			OutboundAction action = actions.get(i);
+			schedule(action.getThing(), action, ids != null ? ids.get(i) : -1);
+		}
+	}
+	
+	/**
+	 * Opens the journal, if there is one, and performs every action that
+	 * was recorded but never completed, i.e. because the bot crashed.
+	 * Things that were claimed but never given actions are evaluated again
+	 * the next time a listing has them.
+	 */
+	protected void replayJournal() {
+		if(actionJournal == null)
+			return;
+		
+		Map<Long, OutboundAction> incomplete = actionJournal.open();
+		
+		for(Entry<Long, String> claim : actionJournal.getClaims().entrySet()) {
+			unfinishedClaims.put(claim.getValue(), claim.getKey());
+		}
+		if(!unfinishedClaims.isEmpty())
+			logger.printf(Level.INFO, "Evaluating %d claimed things again when they are next seen", unfinishedClaims.size());
+		
+		if(incomplete.isEmpty())
+			return;
+		
+		logger.printf(Level.INFO, "Replaying %d actions that were not completed", incomplete.size());
+		for(Entry<Long, OutboundAction> entry : incomplete.entrySet()) {
+			schedule(entry.getValue().getThing(), entry.getValue(), entry.getKey());
+		}
+	}
+	
+	/**
+	 * Stops the executor for asynchronous actions, if there is one, and 
+	 * waits up to ACTION_DRAIN_MS for the actions already queued. Any 
+	 * left over are performed again on the next run if there is a journal.
+	 */
+	protected void drainOutbound() {
+		OutboundExecutor executor;
+		synchronized(this) {
+			executor = outbound;
+		}
+		if(executor == null)
+			return;
+		
+		executor.shutdown();
+		try {
+			if(!executor.awaitIdle(ACTION_DRAIN_MS))
+				logger.printf(Level.WARN, "Gave up waiting on %d queued actions", executor.getPending());
+		} catch (InterruptedException ex) {
+			logger.error(ex);
+			fail("Interrupted");
+		}
+	}
+	
+	/**
+	 * Gets the executor for asynchronous actions, creating it if necessary
+	 * 
+	 * @return the executor
+	 */
+	protected synchronized OutboundExecutor getOutbound() {
+		if(outbound == null) {
+			outbound = new OutboundExecutor(ACTION_THREADS);
+		}
+		return outbound;
+	}
+	
+	/**
+	 * Performs a single action, utilizing exponential back-off.
+	 * 
+	 * @param action the action
+	 * @throws RuntimeException if the action fails for good
+	 */
+	protected void perform(OutboundAction action) {
+		switch(action.getType()) {
+		case REPLY:
+			handleReply(action.getTarget(), action.getArg(0));
+			break;
+		case FLAIR:
+			handleFlair(action.getTarget(), action.getArg(0));
+			break;
+		case REPORT:
+			handleReport(action.getTarget(), action.getArg(0));
+			break;
+		case BAN:
+			handleBanUserOnAllSubreddits(action.getTarget(), action.getArg(0), action.getArg(1), action.getArg(2));
+			break;
+		case UNBAN:
+			handleUnbanUserOnAllSubreddits(action.getTarget());
+			break;
+		case PM:
+			logger.printf(Level.INFO, "Sending pm response (to=%s, title=%s, message=%s)", action.getTarget(), action.getArg(0), action.getArg(1));
+			if(sendMessage(action.getTarget(), action.getArg(0), action.getArg(1)) == null)
+				throw new RuntimeException("Gave up sending a pm to " + action.getTarget());
+			break;
 		}
 	}
 }
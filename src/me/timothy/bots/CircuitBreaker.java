@@ -0,0 +1,206 @@
+package me.timothy.bots;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Stops every caller of an endpoint from hammering it while it is down.
+ * After a number of consecutive failures the breaker opens and requests
+ * are held back for a cooldown. Then a single probe is let through: if it
+ * succeeds the breaker closes, otherwise it opens for another cooldown.
+ * <br><br>
+ * Breakers are shared per endpoint through {@link #forName(String)}, so
+ * every {@link Retryable} with the same endpoint sees the same state. Safe
+ * to share between threads.
+ *
+ * @author Timothy
+ */
+public class CircuitBreaker {
+	/** The default number of consecutive failures that opens a breaker */
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+	/** The default time in milliseconds a breaker stays open before probing */
+	public static final long DEFAULT_OPEN_MS = 1000 * 60;
+
+	/** How long callers wait while a probe is in flight, in milliseconds */
+	private static final long PROBE_WAIT_MS = 1000;
+
+	/** The breaker for each endpoint */
+	private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+	/**
+	 * The states of a breaker
+	 *
+	 * @author Timothy
+	 */
+	public enum State {
+		/** Requests go through */
+		CLOSED,
+
+		/** Requests are held back until the cooldown is over */
+		OPEN,
+
+		/** A single probe is in flight; everything else is held back */
+		HALF_OPEN
+	}
+
+	/** The logger */
+	private Logger logger;
+
+	/** The endpoint, for logging */
+	private String endpoint;
+
+	/** The number of consecutive failures that opens the breaker */
+	private int failureThreshold;
+
+	/** The time in milliseconds the breaker stays open before probing */
+	private long openMs;
+
+	/** The current state */
+	private State state;
+
+	/** The number of consecutive failures */
+	private int failures;
+
+	/** When the breaker last opened, in milliseconds since the epoch */
+	private long openedAt;
+
+	/**
+	 * Creates a closed breaker
+	 *
+	 * @param endpoint the endpoint, for logging
+	 * @param failureThreshold the number of consecutive failures that opens the breaker
+	 * @param openMs the time in milliseconds the breaker stays open before probing
+	 */
+	public CircuitBreaker(String endpoint, int failureThreshold, long openMs) {
+		if(failureThreshold < 1 || openMs < 0)
+			throw new IllegalArgumentException("Need failureThreshold >= 1 and openMs >= 0, got " + failureThreshold + " and " + openMs);
+
+		this.endpoint = endpoint;
+		this.failureThreshold = failureThreshold;
+		this.openMs = openMs;
+		this.state = State.CLOSED;
+
+		logger = LogManager.getLogger();
+	}
+
+	/**
+	 * Gets the shared breaker for the endpoint of the specified name,
+	 * creating it with the defaults if necessary
+	 *
+	 * @param name the name of a retryable
+	 * @return the breaker for its endpoint
+	 * @see #endpointOf(String)
+	 */
+	public static CircuitBreaker forName(String name) {
+		String endpoint = endpointOf(name);
+		CircuitBreaker breaker = BREAKERS.get(endpoint);
+		if(breaker == null) {
+			breaker = new CircuitBreaker(endpoint, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MS);
+			CircuitBreaker existing = BREAKERS.putIfAbsent(endpoint, breaker);
+			if(existing != null)
+				breaker = existing;
+		}
+		return breaker;
+	}
+
+	/**
+	 * Replaces the shared breaker for an endpoint, i.e. to give it a
+	 * different threshold or cooldown
+	 *
+	 * @param breaker the breaker
+	 */
+	public static void register(CircuitBreaker breaker) {
+		BREAKERS.put(breaker.endpoint, breaker);
+	}
+
+	/**
+	 * Gets the endpoint of a retryable name: everything before the first
+	 * " - ", so that "handleBan - user on /r/sub" shares a breaker with
+	 * every other ban.
+	 *
+	 * @param name the name of a retryable
+	 * @return the endpoint
+	 */
+	public static String endpointOf(String name) {
+		int index = name.indexOf(" - ");
+		return index < 0 ? name : name.substring(0, index);
+	}
+
+	/**
+	 * Asks to make a request. If the breaker is open and the cooldown is
+	 * over, this caller becomes the probe.
+	 *
+	 * @return 0 if the request may go ahead, otherwise the time in milliseconds to wait before asking again
+	 */
+	public synchronized long tryPass() {
+		switch(state) {
+		case CLOSED:
+			return 0;
+		case OPEN:
+			long remaining = openedAt + openMs - System.currentTimeMillis();
+			if(remaining > 0)
+				return remaining;
+
+			state = State.HALF_OPEN;
+			logger.info("Circuit for " + endpoint + " is half open; sending a probe");
+			return 0;
+		default:
+			return PROBE_WAIT_MS;
+		}
+	}
+
+	/**
+	 * Records a request that succeeded, closing the breaker
+	 */
+	public synchronized void recordSuccess() {
+		if(state != State.CLOSED)
+			logger.info("Circuit for " + endpoint + " closed");
+
+		state = State.CLOSED;
+		failures = 0;
+	}
+
+	/**
+	 * Records a request that failed, opening the breaker if this was the
+	 * probe or there have been enough consecutive failures
+	 */
+	public synchronized void recordFailure() {
+		failures++;
+		if(state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+			logger.warn("Circuit for " + endpoint + " opened after " + failures + " consecutive failures; holding requests for " + openMs + "ms");
+		}
+	}
+
+	/**
+	 * Gets the current state
+	 *
+	 * @return the state
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * Gets the number of consecutive failures
+	 *
+	 * @return the consecutive failures
+	 */
+	public synchronized int getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Gets the endpoint
+	 *
+	 * @return the endpoint
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+}
@@ -0,0 +1,93 @@
+package me.timothy.bots;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import me.timothy.jreddit.HttpUnexpectedStatusCodeException;
+
+/**
+ * Picks a retry policy by what went wrong. An unexpected http status is
+ * looked up by its status code first; otherwise the exception is looked
+ * up by its class and then each superclass in turn. Anything that matches
+ * nothing, including a null result, goes to the fallback.
+ * <br><br>
+ * Configure this before sharing it; lookups are safe from any thread
+ * once it is no longer changed.
+ *
+ * @author Timothy
+ */
+public class ClassifiedRetryPolicy implements RetryPolicy {
+	/** The policy for each http status code */
+	private Map<Integer, RetryPolicy> byStatus;
+
+	/** The policy for each exception class */
+	private Map<Class<?>, RetryPolicy> byClass;
+
+	/** The policy for everything else */
+	private RetryPolicy fallback;
+
+	/**
+	 * Creates a policy that uses the fallback until configured otherwise
+	 *
+	 * @param fallback the policy for failures that match nothing
+	 */
+	public ClassifiedRetryPolicy(RetryPolicy fallback) {
+		this.byStatus = new HashMap<>();
+		this.byClass = new HashMap<>();
+		this.fallback = fallback;
+	}
+
+	/**
+	 * Uses the policy for unexpected http responses with the status code
+	 *
+	 * @param statusCode the status code
+	 * @param policy the policy
+	 * @return this policy
+	 */
+	public ClassifiedRetryPolicy onStatus(int statusCode, RetryPolicy policy) {
+		byStatus.put(statusCode, policy);
+		return this;
+	}
+
+	/**
+	 * Uses the policy for exceptions of the class or any subclass that has
+	 * no policy of its own
+	 *
+	 * @param exceptionClass the class
+	 * @param policy the policy
+	 * @return this policy
+	 */
+	public ClassifiedRetryPolicy onException(Class<? extends Exception> exceptionClass, RetryPolicy policy) {
+		byClass.put(exceptionClass, policy);
+		return this;
+	}
+
+	@Override
+	public long delayFor(Exception failure, int times) {
+		return policyFor(failure).delayFor(failure, times);
+	}
+
+	/**
+	 * Finds the policy for a failure
+	 *
+	 * @param failure what runImpl threw, or null if it returned null
+	 * @return the policy
+	 */
+	protected RetryPolicy policyFor(Exception failure) {
+		if(failure == null)
+			return fallback;
+
+		if(failure instanceof HttpUnexpectedStatusCodeException) {
+			RetryPolicy policy = byStatus.get(((HttpUnexpectedStatusCodeException) failure).statusCode);
+			if(policy != null)
+				return policy;
+		}
+
+		for(Class<?> cls = failure.getClass(); cls != null; cls = cls.getSuperclass()) {
+			RetryPolicy policy = byClass.get(cls);
+			if(policy != null)
+				return policy;
+		}
+		return fallback;
+	}
+}
@@ -1,13 +1,31 @@
 package me.timothy.bots;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * Describes a database. At minimum, a database needs to be able
  * to remember fullnames so comments/submissions aren't used multiple times.
+ * Summons may also keep typed state in it through {@link #getState(String)}.
  * 
  * @author Timothy
  */
 public abstract class Database {
+	/** The characters a state namespace may contain */
+	private static final Pattern NAMESPACE_PATTERN = Pattern.compile("[A-Za-z0-9_.-]+");
+	
+	/** How long fullnames are remembered, in milliseconds, or 0 for forever */
+	private long retentionMs;
+	
+	/** The state of each namespace that has been used, by namespace */
+	private final Map<String, SummonState> states = new HashMap<>();
 	
 	/**
 	 * Adds the fullname to the database.
@@ -23,4 +41,235 @@ public abstract class Database {
 	 * @return if it is in the database
 	 */
 	public abstract boolean containsFullname(String id);
+	
+	/**
+	 * Adds the fullname unless it is already in the database. This is how
+	 * the driver claims a thing before handling it, so that when things are
+	 * handled on several threads each one is handled exactly once. By
+	 * default this is a check followed by an add, which is only safe from
+	 * one thread; thread-safe databases must make it atomic.
+	 * 
+	 * @param id the fullname to add
+	 * @return true if it was added, false if it was already in the database
+	 */
+	public boolean addIfAbsent(String id) {
+		if(containsFullname(id))
+			return false;
+		addFullname(id);
+		return true;
+	}
+	
+	/**
+	 * Adds every fullname that is not already in the database, as if by
+	 * {@link #addIfAbsent(String)} for each one. Databases where each call
+	 * is expensive should check and add them all at once.
+	 * 
+	 * @param ids the fullnames to add
+	 * @return the fullnames that were added, in the same order
+	 */
+	public List<String> addAllIfAbsent(List<String> ids) {
+		List<String> result = new ArrayList<>();
+		for(String id : ids) {
+			if(addIfAbsent(id))
+				result.add(id);
+		}
+		return result;
+	}
+	
+	/**
+	 * Checks if every one of the fullnames is in the database. Loops over
+	 * {@link #containsFullname(String)} by default; databases where each
+	 * lookup is expensive should check them all at once.
+	 * 
+	 * @param ids the fullnames to check
+	 * @return if all of them are in the database
+	 */
+	public boolean containsAll(Collection<String> ids) {
+		for(String id : ids) {
+			if(!containsFullname(id))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Finds which of the fullnames are not in the database. This is how
+	 * the driver checks an entire listing at once. Loops over
+	 * {@link #containsFullname(String)} by default; databases where each
+	 * lookup is expensive should check them all at once.
+	 * 
+	 * @param ids the fullnames to check
+	 * @return the fullnames that are not in the database, in the same order
+	 */
+	public List<String> filterUnseen(List<String> ids) {
+		List<String> result = new ArrayList<>();
+		for(String id : ids) {
+			if(!containsFullname(id))
+				result.add(id);
+		}
+		return result;
+	}
+	
+	/**
+	 * Adds every one of the fullnames to the database. Loops over
+	 * {@link #addFullname(String)} by default; databases where each
+	 * add is expensive should add them all at once.
+	 * 
+	 * @param ids the fullnames to add
+	 */
+	public void addAll(Collection<String> ids) {
+		for(String id : ids) {
+			addFullname(id);
+		}
+	}
+	
+	/**
+	 * Gets every fullname in the database, in no particular order. 
+	 * Used to rebuild indexes that sit in front of a database, so it
+	 * does not need to be fast. A database that cannot list every 
+	 * fullname it contains must throw rather than leave some out, which 
+	 * is what this does by default; indexes such as 
+	 * {@link me.timothy.bots.impl.BloomFilterDatabase} rely on that to 
+	 * refuse a database they could not rebuild from.
+	 * 
+	 * @return the fullnames in the database
+	 * @throws UnsupportedOperationException if this database cannot list every fullname it contains
+	 */
+	public Iterable<String> getFullnames() {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot list its fullnames");
+	}
+	
+	/**
+	 * Gets the number of fullnames in the database. Used for metrics,
+	 * so it does not need to be fast.
+	 * 
+	 * @return the number of fullnames remembered, or -1 if this database cannot tell
+	 */
+	public int size() {
+		return -1;
+	}
+	
+	/**
+	 * Estimates the memory this database uses to remember its fullnames,
+	 * including memory outside the heap. Used for metrics, so it only 
+	 * needs to be roughly right.
+	 * 
+	 * @return the approximate memory usage in bytes, or -1 if this database cannot tell
+	 */
+	public long estimatedBytes() {
+		return -1;
+	}
+	
+	/**
+	 * Gets how long fullnames are remembered after they are added
+	 * 
+	 * @return the retention in milliseconds, or 0 if fullnames are never forgotten
+	 */
+	public long getRetention() {
+		return retentionMs;
+	}
+	
+	/**
+	 * Sets how long fullnames are remembered after they are added. Listings
+	 * only ever contain recent things, so a fullname older than the oldest
+	 * thing a listing can return will never be asked about again. Only
+	 * databases that record when each fullname was added act on this.
+	 * 
+	 * @param retentionMs the retention in milliseconds, or 0 to never forget fullnames
+	 * @see #evictExpired()
+	 */
+	public void setRetention(long retentionMs) {
+		if(retentionMs < 0)
+			throw new IllegalArgumentException("retention cannot be negative, got " + retentionMs);
+		this.retentionMs = retentionMs;
+	}
+	
+	/**
+	 * Forgets every fullname that was added longer ago than the retention,
+	 * so that it is dropped from memory and from whatever is persisted next.
+	 * The driver calls this once every loop. Does nothing by default, or if
+	 * the retention is 0.
+	 */
+	public void evictExpired() {
+	}
+	
+	/**
+	 * Persists anything that has changed since the last flush. The
+	 * driver calls this once at the end of every loop, so databases 
+	 * that buffer their writes can commit them as a group. Does nothing
+	 * by default.
+	 */
+	public void flush() {
+	}
+	
+	/**
+	 * Gets the state for the specified namespace, reading it the first
+	 * time it is asked for. Every later read and write is in memory, and
+	 * changes are written back by {@link #flushState()}.
+	 * 
+	 * @param namespace the namespace, usually the summon's name; letters, digits, '_', '.' and '-' only
+	 * @return the state for the namespace
+	 */
+	public SummonState getState(String namespace) {
+		if(!NAMESPACE_PATTERN.matcher(namespace).matches())
+			throw new IllegalArgumentException("Invalid state namespace: " + namespace);
+		
+		synchronized(states) {
+			SummonState state = states.get(namespace);
+			if(state == null) {
+				state = new SummonState(namespace, readNamespace(namespace));
+				states.put(namespace, state);
+			}
+			return state;
+		}
+	}
+	
+	/**
+	 * Writes every namespace whose state changed since the last call, 
+	 * one write per namespace no matter how many keys changed. The driver
+	 * calls this once at the end of every loop.
+	 */
+	public void flushState() {
+		List<SummonState> dirty = new ArrayList<>();
+		synchronized(states) {
+			for(SummonState state : states.values()) {
+				if(state.isDirty())
+					dirty.add(state);
+			}
+		}
+		
+		for(SummonState state : dirty) {
+			Map<String, String> values = new HashMap<>();
+			Set<String> changed = new HashSet<>();
+			state.drainChanges(values, changed);
+			try {
+				writeNamespace(state.getNamespace(), values, changed);
+			}catch(RuntimeException e) {
+				state.markChanged(changed);
+				throw e;
+			}
+		}
+	}
+	
+	/**
+	 * Reads the stored state of a namespace. By default state is not 
+	 * stored, so this returns nothing.
+	 * 
+	 * @param namespace the namespace
+	 * @return the stored keys and values
+	 */
+	protected Map<String, String> readNamespace(String namespace) {
+		return Collections.emptyMap();
+	}
+	
+	/**
+	 * Stores the state of a namespace. By default state is not stored,
+	 * so it only lasts as long as the process.
+	 * 
+	 * @param namespace the namespace
+	 * @param values every key and value in the namespace
+	 * @param changed the keys written or removed since the last write; removed keys are not in values
+	 */
+	protected void writeNamespace(String namespace, Map<String, String> values, Set<String> changed) {
+	}
 }
@@ -0,0 +1,133 @@
+package me.timothy.bots;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A local file of outbound actions that were given up on, so a single
+ * bad item, such as a reply to a deleted thread, does not hold up the
+ * actions behind it. Each line is the time the action was given up on,
+ * the reason, and the action as formatted by {@link OutboundAction#format()},
+ * tab separated. The file is plain text so it can be inspected or edited
+ * by hand.
+ * <br><br>
+ * To re-drive, {@link #take()} moves the file aside and returns its
+ * actions; once they are safely queued again {@link #release()} deletes
+ * it. If the process dies in between, the next take() returns them again.
+ * Safe to share between threads.
+ *
+ * @author Timothy
+ */
+public class DeadLetterLog {
+	/** The logger */
+	private Logger logger;
+
+	/** The dead letter file */
+	private File file;
+
+	/** Where the file is moved while its actions are re-driven */
+	private File taken;
+
+	/**
+	 * Creates a dead letter log in the specified file
+	 *
+	 * @param file the dead letter file
+	 */
+	public DeadLetterLog(File file) {
+		this.file = file;
+		this.taken = new File(file.getPath() + ".redrive");
+
+		logger = LogManager.getLogger();
+	}
+
+	/**
+	 * Appends the action, and does not return until it is on disk
+	 *
+	 * @param action the action that was given up on
+	 * @param reason why it was given up on
+	 */
+	public synchronized void add(OutboundAction action, String reason) {
+		String line = System.currentTimeMillis() + "\t" + OutboundAction.escape(reason) + "\t" + action.format();
+		try(FileOutputStream fos = new FileOutputStream(file, true);
+				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8))) {
+			bw.append(line).append('\n');
+			bw.flush();
+			fos.getChannel().force(false);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Moves every dead letter aside and returns the actions, oldest first,
+	 * including any taken before but never released. Actions given up on
+	 * after this are kept for the next take.
+	 *
+	 * @return the actions to re-drive
+	 */
+	public synchronized List<OutboundAction> take() {
+		List<OutboundAction> result = new ArrayList<>();
+		if(taken.exists())
+			read(taken, result);
+
+		if(file.exists()) {
+			read(file, result);
+			if(taken.exists() && !taken.delete())
+				throw new RuntimeException("Failed to delete " + taken);
+
+			try {
+				Files.move(file.toPath(), taken.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Forgets the actions returned by the last {@link #take()}. Call this
+	 * once they are queued again, i.e. recorded in an {@link ActionJournal}.
+	 */
+	public synchronized void release() {
+		if(taken.exists() && !taken.delete())
+			throw new RuntimeException("Failed to delete " + taken);
+	}
+
+	/**
+	 * Reads every complete line of a dead letter file
+	 *
+	 * @param from the file to read
+	 * @param into the list to add the actions to
+	 */
+	private void read(File from, List<OutboundAction> into) {
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(from.toPath(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		for(String line : lines) {
+			if(line.isEmpty())
+				continue;
+
+			String[] parts = line.split("\t", 3);
+			try {
+				into.add(OutboundAction.parse(parts[2]));
+			}catch(IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+				logger.warn("Ignoring unreadable line in " + from + ": " + line);
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package me.timothy.bots;
+
+import me.timothy.jreddit.info.Listing;
+import me.timothy.jreddit.info.Thing;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Remembers the newest thing fetched from a listing sorted by new, so
+ * each fetch can tell which things are newer than the last one and
+ * whether it overlapped with it at all. Reddit ids of one kind increase
+ * over time, so a fetch that contains nothing at or before the cursor
+ * means more things arrived between fetches than fit on one page, and
+ * some of them may have been missed. Those gaps are logged and counted
+ * so the poll interval can be sized to avoid them.
+ * <br><br>
+ * Safe to share between threads.
+ *
+ * @author Timothy
+ */
+public class ListingCursor {
+	/** The logger */
+	private Logger logger;
+
+	/** The name of the listing, for logging */
+	private String name;
+
+	/** The fullname of the newest thing fetched, or null */
+	private String newestFullname;
+
+	/** The base 36 id of the newest thing fetched, or -1 */
+	private long newestId;
+
+	/** The number of fetches */
+	private long fetches;
+
+	/** The number of things newer than the cursor across every fetch */
+	private long newer;
+
+	/** The number of fetches that did not overlap with the one before */
+	private long gaps;
+
+	/**
+	 * Creates a cursor that has not seen any fetch
+	 *
+	 * @param name the name of the listing, for logging
+	 */
+	public ListingCursor(String name) {
+		this.name = name;
+		this.newestId = -1;
+
+		logger = LogManager.getLogger();
+	}
+
+	/**
+	 * Moves the cursor to the newest thing in the page, checking whether
+	 * the page overlapped with the last one.
+	 *
+	 * @param page the page just fetched, newest first
+	 * @return the number of things in the page newer than the cursor was
+	 */
+	public synchronized int advance(Listing page) {
+		fetches++;
+
+		int newerInPage = 0;
+		boolean overlapped = false;
+		long pageNewestId = newestId;
+		String pageNewestFullname = newestFullname;
+		for(int i = 0; i < page.numChildren(); i++) {
+			Thing thing = page.getChild(i);
+			long id;
+			try {
+				id = Long.parseLong(thing.id(), 36);
+			}catch(NumberFormatException ex) {
+				continue;
+			}
+
+			if(id > newestId) {
+				newerInPage++;
+			}else {
+				overlapped = true;
+			}
+
+			if(id > pageNewestId) {
+				pageNewestId = id;
+				pageNewestFullname = thing.fullname();
+			}
+		}
+
+		if(newestId >= 0 && page.numChildren() > 0 && !overlapped) {
+			gaps++;
+			logger.warn(String.format("%s: none of the %d things fetched were at or before %s, so some may have been missed", name, page.numChildren(), newestFullname));
+		}
+
+		newer += newerInPage;
+		newestId = pageNewestId;
+		newestFullname = pageNewestFullname;
+		return newerInPage;
+	}
+
+	/**
+	 * Gets the fullname of the newest thing fetched, which is what a
+	 * {@code before} parameter would be set to
+	 *
+	 * @return the fullname, or null if nothing was fetched
+	 */
+	public synchronized String getNewestFullname() {
+		return newestFullname;
+	}
+
+	/**
+	 * Gets the number of fetches
+	 *
+	 * @return the number of times the cursor was advanced
+	 */
+	public synchronized long getFetches() {
+		return fetches;
+	}
+
+	/**
+	 * Gets the number of things that were newer than the cursor, across
+	 * every fetch
+	 *
+	 * @return the number of new things
+	 */
+	public synchronized long getNewer() {
+		return newer;
+	}
+
+	/**
+	 * Gets the number of fetches that did not overlap with the one
+	 * before, meaning things may have been missed
+	 *
+	 * @return the number of gaps
+	 */
+	public synchronized long getGaps() {
+		return gaps;
+	}
+}
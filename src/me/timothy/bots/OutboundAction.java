@@ -0,0 +1,283 @@
+package me.timothy.bots;
+
+import java.util.Arrays;
+
+/**
+ * One side effect of a summon response, such as a reply or a ban,
+ * described as plain data so it can be queued and performed later.
+ * Every action belongs to the thing whose response produced it, and
+ * actions for the same thing are performed in the order they were
+ * created.
+ *
+ * @author Timothy
+ * @see BotDriver#perform(OutboundAction)
+ */
+public class OutboundAction {
+	/** How a null field is written by {@link #format()} */
+	private static final String NULL = "\\0";
+
+	/**
+	 * The kinds of action
+	 *
+	 * @author Timothy
+	 */
+	public enum Type {
+		/** Replies to target with args[0] */
+		REPLY,
+
+		/** Flairs the link target with the css class args[0] */
+		FLAIR,
+
+		/** Reports target with the message args[0] */
+		REPORT,
+
+		/** Bans the user target with message args[0], reason args[1] and note args[2] */
+		BAN,
+
+		/** Unbans the user target */
+		UNBAN,
+
+		/** Sends the user target a pm with title args[0] and text args[1] */
+		PM
+	}
+
+	/** The kind of action */
+	private Type type;
+
+	/** The fullname of the thing whose response produced this action */
+	private String thing;
+
+	/** What the action is applied to: a fullname or a username */
+	private String target;
+
+	/** The rest of the action, depending on the type */
+	private String[] args;
+
+	/**
+	 * Creates an action
+	 *
+	 * @param type the kind of action
+	 * @param thing the fullname of the thing whose response produced this action
+	 * @param target the fullname or username the action is applied to
+	 * @param args the rest of the action, depending on the type
+	 */
+	public OutboundAction(Type type, String thing, String target, String... args) {
+		this.type = type;
+		this.thing = thing;
+		this.target = target;
+		this.args = args;
+	}
+
+	/**
+	 * Creates a reply
+	 *
+	 * @param thing the fullname of the thing to reply to
+	 * @param text the text of the reply
+	 * @return the action
+	 */
+	public static OutboundAction reply(String thing, String text) {
+		return new OutboundAction(Type.REPLY, thing, thing, text);
+	}
+
+	/**
+	 * Creates a flair
+	 *
+	 * @param thing the fullname of the thing whose response produced this action
+	 * @param linkId the link to flair
+	 * @param flair the css class of the flair
+	 * @return the action
+	 */
+	public static OutboundAction flair(String thing, String linkId, String flair) {
+		return new OutboundAction(Type.FLAIR, thing, linkId, flair);
+	}
+
+	/**
+	 * Creates a report
+	 *
+	 * @param thing the fullname of the thing to report
+	 * @param message the report message
+	 * @return the action
+	 */
+	public static OutboundAction report(String thing, String message) {
+		return new OutboundAction(Type.REPORT, thing, thing, message);
+	}
+
+	/**
+	 * Creates a ban on every subreddit the bot monitors
+	 *
+	 * @param thing the fullname of the thing whose response produced this action
+	 * @param username the user to ban
+	 * @param message the message to the user
+	 * @param reason the reason
+	 * @param note the note to other moderators
+	 * @return the action
+	 */
+	public static OutboundAction ban(String thing, String username, String message, String reason, String note) {
+		return new OutboundAction(Type.BAN, thing, username, message, reason, note);
+	}
+
+	/**
+	 * Creates an unban on every subreddit the bot monitors
+	 *
+	 * @param thing the fullname of the thing whose response produced this action
+	 * @param username the user to unban
+	 * @return the action
+	 */
+	public static OutboundAction unban(String thing, String username) {
+		return new OutboundAction(Type.UNBAN, thing, username);
+	}
+
+	/**
+	 * Creates a pm
+	 *
+	 * @param thing the fullname of the thing whose response produced this action
+	 * @param to the user to send the pm to
+	 * @param title the title of the pm
+	 * @param text the text of the pm
+	 * @return the action
+	 */
+	public static OutboundAction pm(String thing, String to, String title, String text) {
+		return new OutboundAction(Type.PM, thing, to, title, text);
+	}
+
+	/**
+	 * Gets the kind of action
+	 *
+	 * @return the type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the fullname of the thing whose response produced this action.
+	 * Actions with the same thing are performed in order.
+	 *
+	 * @return the fullname of the thing
+	 */
+	public String getThing() {
+		return thing;
+	}
+
+	/**
+	 * Gets what the action is applied to
+	 *
+	 * @return a fullname or a username, depending on the type
+	 */
+	public String getTarget() {
+		return target;
+	}
+
+	/**
+	 * Gets one of the rest of the action
+	 *
+	 * @param index the index
+	 * @return the argument, depending on the type
+	 */
+	public String getArg(int index) {
+		return args[index];
+	}
+
+	/**
+	 * Gets the number of arguments
+	 *
+	 * @return the number of arguments
+	 */
+	public int getNumArgs() {
+		return args.length;
+	}
+
+	/**
+	 * Formats the action as a single line of tab separated, backslash
+	 * escaped fields: type, thing, target and then args.
+	 *
+	 * @return the line, without a newline
+	 * @see #parse(String)
+	 */
+	public String format() {
+		StringBuilder result = new StringBuilder(type.name());
+		result.append('\t').append(escape(thing));
+		result.append('\t').append(escape(target));
+		for(String arg : args) {
+			result.append('\t').append(escape(arg));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Parses an action formatted by {@link #format()}
+	 *
+	 * @param line the line, without a newline
+	 * @return the action
+	 * @throws IllegalArgumentException if the line is not a formatted action
+	 */
+	public static OutboundAction parse(String line) {
+		String[] parts = line.split("\t", -1);
+		if(parts.length < 3)
+			throw new IllegalArgumentException("Not an action: " + line);
+
+		String[] args = new String[parts.length - 3];
+		for(int i = 0; i < args.length; i++) {
+			args[i] = unescape(parts[i + 3]);
+		}
+		return new OutboundAction(Type.valueOf(parts[0]), unescape(parts[1]), unescape(parts[2]), args);
+	}
+
+	/**
+	 * Escapes backslashes, tabs and line breaks so the string fits in one field
+	 *
+	 * @param str the string, or null
+	 * @return the escaped string
+	 */
+	public static String escape(String str) {
+		if(str == null)
+			return NULL;
+
+		StringBuilder result = new StringBuilder(str.length());
+		for(int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			switch(c) {
+			case '\\': result.append("\\\\"); break;
+			case '\t': result.append("\\t"); break;
+			case '\n': result.append("\\n"); break;
+			case '\r': result.append("\\r"); break;
+			default: result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Reverses {@link #escape(String)}
+	 *
+	 * @param str the escaped string
+	 * @return the original string, or null
+	 */
+	public static String unescape(String str) {
+		if(str.equals(NULL))
+			return null;
+
+		StringBuilder result = new StringBuilder(str.length());
+		for(int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if(c != '\\' || i + 1 == str.length()) {
+				result.append(c);
+				continue;
+			}
+
+			char next = str.charAt(++i);
+			switch(next) {
+			case 't': result.append('\t'); break;
+			case 'n': result.append('\n'); break;
+			case 'r': result.append('\r'); break;
+			default: result.append(next);
+			}
+		}
+		return result.toString();
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + target + " for " + thing + " " + Arrays.toString(args);
+	}
+}
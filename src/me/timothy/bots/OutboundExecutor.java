@@ -0,0 +1,161 @@
+package me.timothy.bots;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs outbound actions on a small pool of worker threads, so that the
+ * thread scanning listings never waits on a reply. Tasks submitted with
+ * the same key run one at a time in the order they were submitted;
+ * tasks with different keys run in parallel, as far as the pool and
+ * the rate limiter allow.
+ * <br><br>
+ * A task that throws is logged and the next task for its key still runs.
+ * Once shut down no more tasks are accepted, but those already submitted
+ * still run.
+ *
+ * @author Timothy
+ */
+public class OutboundExecutor {
+	/** The logger */
+	private Logger logger;
+
+	/** The worker threads */
+	private ExecutorService workers;
+
+	/** The tasks waiting for each key that has any; the head is running or about to */
+	private Map<String, Queue<Runnable>> queues;
+
+	/** The number of tasks submitted and not yet finished */
+	private int pending;
+
+	/** If shutdown() has been called */
+	private boolean shutdown;
+
+	/**
+	 * Creates an executor with the specified number of worker threads
+	 *
+	 * @param threads the number of worker threads
+	 */
+	public OutboundExecutor(int threads) {
+		final AtomicInteger counter = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "outbound-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		queues = new HashMap<>();
+
+		logger = LogManager.getLogger();
+	}
+
+	/**
+	 * Queues the task behind every task already submitted with the same key
+	 *
+	 * @param key the key, i.e. the fullname of the thing the task is for
+	 * @param task the task
+	 * @throws RejectedExecutionException if this has been shut down
+	 */
+	public synchronized void submit(final String key, Runnable task) {
+		if(shutdown)
+			throw new RejectedExecutionException("Outbound executor is shut down");
+
+		pending++;
+
+		Queue<Runnable> queue = queues.get(key);
+		if(queue != null) {
+			queue.add(task);
+			return;
+		}
+
+		queue = new ArrayDeque<>();
+		queue.add(task);
+		queues.put(key, queue);
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				drain(key);
+			}
+		});
+	}
+
+	/**
+	 * Gets the number of tasks submitted and not yet finished
+	 *
+	 * @return the number of pending tasks
+	 */
+	public synchronized int getPending() {
+		return pending;
+	}
+
+	/**
+	 * Blocks until every submitted task has finished or the timeout passes
+	 *
+	 * @param timeoutMs the most time to wait, in milliseconds
+	 * @return if every task finished
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public synchronized boolean awaitIdle(long timeoutMs) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		while(pending > 0) {
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining <= 0)
+				return false;
+			wait(remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Stops accepting tasks; tasks already queued still run
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		workers.shutdown();
+	}
+
+	/**
+	 * Runs the tasks for the key one after another until there are none left
+	 *
+	 * @param key the key
+	 */
+	private void drain(String key) {
+		while(true) {
+			Runnable task;
+			synchronized(this) {
+				task = queues.get(key).peek();
+			}
+
+			try {
+				task.run();
+			}catch(RuntimeException ex) {
+				logger.catching(ex);
+			}
+
+			synchronized(this) {
+				pending--;
+				notifyAll();
+
+				Queue<Runnable> queue = queues.get(key);
+				queue.poll();
+				if(queue.isEmpty()) {
+					queues.remove(key);
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package me.timothy.bots;
+
+/**
+ * Decides how long to wait before fetching a listing again, based on
+ * how much of the last fetch was new. A listing that came back entirely
+ * unseen may have overflowed, so the next fetch comes as soon as the
+ * bounds allow; a mostly unseen listing halves the interval; a listing
+ * with nothing new stretches it by half, up to the maximum. Busy
+ * periods miss nothing and idle periods spend little of the api budget.
+ * <br><br>
+ * Safe to share between threads.
+ *
+ * @author Timothy
+ */
+public class PollScheduler {
+	/** How much the interval grows after a fetch with nothing new */
+	private static final double BACKOFF = 1.5;
+
+	/** The shortest interval, in milliseconds */
+	private final long minMs;
+
+	/** The longest interval, in milliseconds */
+	private final long maxMs;
+
+	/** The current interval, in milliseconds */
+	private long intervalMs;
+
+	/**
+	 * Creates a scheduler with the specified bounds
+	 *
+	 * @param initialMs the interval before anything has been recorded
+	 * @param minMs the shortest interval
+	 * @param maxMs the longest interval
+	 */
+	public PollScheduler(long initialMs, long minMs, long maxMs) {
+		if(minMs <= 0 || minMs > maxMs)
+			throw new IllegalArgumentException("Need 0 < minMs <= maxMs, got " + minMs + " and " + maxMs);
+
+		this.minMs = minMs;
+		this.maxMs = maxMs;
+		this.intervalMs = Math.max(minMs, Math.min(maxMs, initialMs));
+	}
+
+	/**
+	 * Creates a scheduler that always waits the same time
+	 *
+	 * @param intervalMs the interval
+	 */
+	public PollScheduler(long intervalMs) {
+		this(intervalMs, intervalMs, intervalMs);
+	}
+
+	/**
+	 * Records the result of a fetch and adjusts the interval
+	 *
+	 * @param returned the number of things in the listing
+	 * @param unseen the number of those that were not seen before
+	 * @return the time to wait before the next fetch, in milliseconds
+	 */
+	public synchronized long record(int returned, int unseen) {
+		if(returned > 0 && unseen >= returned) {
+			intervalMs = minMs;
+		}else if(returned > 0 && unseen * 2 >= returned) {
+			intervalMs = Math.max(minMs, intervalMs / 2);
+		}else if(unseen == 0) {
+			intervalMs = Math.min(maxMs, (long) (intervalMs * BACKOFF));
+		}
+		return intervalMs;
+	}
+
+	/**
+	 * Gets the time to wait before the next fetch
+	 *
+	 * @return the interval in milliseconds
+	 */
+	public synchronized long getIntervalMs() {
+		return intervalMs;
+	}
+
+	/**
+	 * Gets the shortest interval
+	 *
+	 * @return the minimum in milliseconds
+	 */
+	public long getMinMs() {
+		return minMs;
+	}
+
+	/**
+	 * Gets the longest interval
+	 *
+	 * @return the maximum in milliseconds
+	 */
+	public long getMaxMs() {
+		return maxMs;
+	}
+}
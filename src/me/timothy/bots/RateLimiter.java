@@ -0,0 +1,184 @@
+package me.timothy.bots;
+
+/**
+ * A token bucket that paces requests to the reddit api. Each request
+ * takes one token and the bucket refills evenly over the period, so
+ * bursts go out as fast as the budget allows and callers only block
+ * once the budget is spent.
+ * <br><br>
+ * If reddit reports how much of its budget is left, i.e. through the
+ * {@code X-Ratelimit-Remaining} and {@code X-Ratelimit-Reset} headers,
+ * pass it to {@link #update(double, long)} and the bucket follows it
+ * exactly until the reset. Safe to share between threads.
+ *
+ * @author Timothy
+ */
+public class RateLimiter {
+	/** The most tokens the bucket holds */
+	private final double capacity;
+
+	/** Tokens added per millisecond */
+	private final double refillPerMs;
+
+	/** The tokens currently available */
+	private double tokens;
+
+	/** When tokens were last added, in milliseconds since the epoch */
+	private long lastRefill;
+
+	/** When the budget reported by reddit resets, or 0 if reddit has not reported it */
+	private long resetAt;
+
+	/** No tokens are handed out before this time, in milliseconds since the epoch */
+	private long pausedUntil;
+
+	/**
+	 * Creates a full bucket that allows the specified number of
+	 * requests per period
+	 *
+	 * @param requests the number of requests allowed per period
+	 * @param periodMs the period in milliseconds
+	 */
+	public RateLimiter(int requests, long periodMs) {
+		if(requests < 1 || periodMs < 1)
+			throw new IllegalArgumentException("requests and periodMs must be positive, got " + requests + " and " + periodMs);
+
+		this.capacity = requests;
+		this.refillPerMs = requests / (double) periodMs;
+		this.tokens = requests;
+		this.lastRefill = System.currentTimeMillis();
+	}
+
+	/**
+	 * Takes a token, blocking until one is available
+	 *
+	 * @throws RuntimeException if interrupted while waiting
+	 */
+	public void acquire() {
+		while(true) {
+			long waitMs;
+			synchronized(this) {
+				long now = System.currentTimeMillis();
+				refill(now);
+				if(now >= pausedUntil && tokens >= 1) {
+					tokens -= 1;
+					return;
+				}
+				waitMs = waitTime(now);
+			}
+
+			try {
+				Thread.sleep(Math.max(1, waitMs));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Takes a token if one is available right now
+	 *
+	 * @return if a token was taken
+	 */
+	public synchronized boolean tryAcquire() {
+		long now = System.currentTimeMillis();
+		refill(now);
+		if(now < pausedUntil || tokens < 1)
+			return false;
+		tokens -= 1;
+		return true;
+	}
+
+	/**
+	 * Replaces the estimate with the budget reddit reported. Until the
+	 * reset no more tokens are added, and at the reset the bucket is
+	 * full again.
+	 *
+	 * @param remaining the number of requests reddit says are left
+	 * @param resetSeconds the number of seconds until reddit resets the budget
+	 */
+	public synchronized void update(double remaining, long resetSeconds) {
+		long now = System.currentTimeMillis();
+		tokens = Math.max(0, Math.min(capacity, Math.floor(remaining)));
+		resetAt = now + resetSeconds * 1000;
+		lastRefill = now;
+	}
+
+	/**
+	 * Stops handing out tokens until the specified time, i.e. when
+	 * reddit says to retry after a number of seconds
+	 *
+	 * @param time the time in milliseconds since the epoch
+	 */
+	public synchronized void pauseUntil(long time) {
+		pausedUntil = Math.max(pausedUntil, time);
+	}
+
+	/**
+	 * Gets the number of requests that could be made right now
+	 *
+	 * @return the whole tokens available
+	 */
+	public synchronized int getAvailable() {
+		long now = System.currentTimeMillis();
+		refill(now);
+		return now < pausedUntil ? 0 : (int) tokens;
+	}
+
+	/**
+	 * Gets when the budget reported through {@link #update(double, long)}
+	 * resets
+	 *
+	 * @return the time in milliseconds since the epoch, or 0 if reddit has not reported it
+	 */
+	public synchronized long getResetAt() {
+		return resetAt;
+	}
+
+	/**
+	 * Gets the time set by {@link #pauseUntil(long)}
+	 *
+	 * @return the time in milliseconds since the epoch, or 0 if never paused
+	 */
+	public synchronized long getPausedUntil() {
+		return pausedUntil;
+	}
+
+	/**
+	 * Adds the tokens earned since the last refill
+	 *
+	 * @param now the current time in milliseconds
+	 */
+	private void refill(long now) {
+		if(resetAt != 0) {
+			if(now < resetAt)
+				return;
+
+			// reddit's window has reset
+			resetAt = 0;
+			tokens = capacity;
+			lastRefill = now;
+			return;
+		}
+
+		if(now > lastRefill) {
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerMs);
+			lastRefill = now;
+		}
+	}
+
+	/**
+	 * Gets how long until a token could be available
+	 *
+	 * @param now the current time in milliseconds
+	 * @return the time to wait in milliseconds
+	 */
+	private long waitTime(long now) {
+		if(now < pausedUntil)
+			return pausedUntil - now;
+		if(resetAt != 0)
+			return resetAt - now;
+		return (long) Math.ceil((1 - tokens) / refillPerMs);
+	}
+}
@@ -0,0 +1,116 @@
+package me.timothy.bots;
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+/**
+ * The retry policies the bot uses, and {@link #reddit(RateLimiter)},
+ * which puts them together for the reddit api.
+ *
+ * @author Timothy
+ */
+public class RetryPolicies {
+	private static final Random RANDOM = new Random();
+
+	/** The longest any backoff waits, in milliseconds */
+	public static final long MAX_BACKOFF_MS = 1000 * 60 * 30;
+
+	/** The policy Retryable has always used: 10 seconds doubled a random number of times */
+	public static final RetryPolicy DEFAULT = backoff(10000, MAX_BACKOFF_MS);
+
+	/**
+	 * Gets a policy that waits the base time doubled a random number of
+	 * times, up to the number of failures, capped at the maximum
+	 *
+	 * @param baseMs the shortest wait in milliseconds
+	 * @param maxMs the longest wait in milliseconds
+	 * @return the policy
+	 */
+	public static RetryPolicy backoff(final long baseMs, final long maxMs) {
+		return new RetryPolicy() {
+			@Override
+			public long delayFor(Exception failure, int times) {
+				int doublings = RANDOM.nextInt(Math.min(times, 31));
+				return (long) Math.min(maxMs, baseMs * Math.pow(2, doublings));
+			}
+		};
+	}
+
+	/**
+	 * Gets a policy that always waits the same time
+	 *
+	 * @param ms the wait in milliseconds
+	 * @return the policy
+	 */
+	public static RetryPolicy fixed(final long ms) {
+		return new RetryPolicy() {
+			@Override
+			public long delayFor(Exception failure, int times) {
+				return ms;
+			}
+		};
+	}
+
+	/**
+	 * Gets a policy that gives up right away, for failures that will never
+	 * succeed such as a 403
+	 *
+	 * @return the policy
+	 */
+	public static RetryPolicy stop() {
+		return fixed(RetryPolicy.STOP);
+	}
+
+	/**
+	 * Gets a policy for being rate limited. If the rate limiter knows a
+	 * time in the future when requests may be made again, i.e. reddit's
+	 * reset from {@link RateLimiter#update(double, long)} or an earlier
+	 * pause, this waits until then. Otherwise it pauses the rate limiter,
+	 * and so every other request, for the fallback time. Tokens merely
+	 * running low do not count, since reddit has said otherwise.
+	 *
+	 * @param rateLimiter the rate limiter shared by every request
+	 * @param fallbackMs the wait in milliseconds when no reset time is known
+	 * @return the policy
+	 */
+	public static RetryPolicy rateLimited(final RateLimiter rateLimiter, final long fallbackMs) {
+		return new RetryPolicy() {
+			@Override
+			public long delayFor(Exception failure, int times) {
+				long now = System.currentTimeMillis();
+				long until = Math.max(rateLimiter.getResetAt(), rateLimiter.getPausedUntil());
+				if(until > now)
+					return until - now;
+
+				rateLimiter.pauseUntil(now + fallbackMs);
+				return fallbackMs;
+			}
+		};
+	}
+
+	/**
+	 * Gets the policy for the reddit api. A 429 waits for the rate limit
+	 * to reset. Server errors, a 401 from an expired token, and socket
+	 * failures are transient and retry within a second at first. A 403 or
+	 * 404 will never succeed and gives up. Everything else backs off like
+	 * {@link #DEFAULT}.
+	 *
+	 * @param rateLimiter the rate limiter shared by every request
+	 * @return the policy
+	 */
+	public static ClassifiedRetryPolicy reddit(RateLimiter rateLimiter) {
+		RetryPolicy transientFailure = backoff(250, 1000 * 30);
+		return new ClassifiedRetryPolicy(DEFAULT)
+				.onStatus(429, rateLimited(rateLimiter, 1000 * 60))
+				.onStatus(500, transientFailure)
+				.onStatus(502, transientFailure)
+				.onStatus(503, transientFailure)
+				.onStatus(504, transientFailure)
+				.onStatus(401, transientFailure)
+				.onStatus(403, stop())
+				.onStatus(404, stop())
+				.onException(SocketTimeoutException.class, transientFailure)
+				.onException(SocketException.class, transientFailure);
+	}
+}
@@ -0,0 +1,22 @@
+package me.timothy.bots;
+
+/**
+ * Decides how a {@link Retryable} reacts to a failure: how long to wait
+ * before the next attempt, or whether to give up for good.
+ *
+ * @author Timothy
+ * @see RetryPolicies
+ */
+public interface RetryPolicy {
+	/** Returned by {@link #delayFor(Exception, int)} to give up */
+	public static final long STOP = -1;
+
+	/**
+	 * Decides what to do after a failed attempt
+	 *
+	 * @param failure what runImpl threw, or null if it returned null
+	 * @param times the number of attempts that have failed so far, at least 1
+	 * @return the time in milliseconds to wait before the next attempt, or STOP to give up
+	 */
+	public long delayFor(Exception failure, int times);
+}
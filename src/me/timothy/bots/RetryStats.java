@@ -0,0 +1,293 @@
+package me.timothy.bots;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import me.timothy.utils.LatencyHistogram;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Counts what every {@link Retryable} with the same endpoint spends its
+ * time on: attempts and how long they take, failures by type, and time
+ * spent waiting between attempts. Retryables share stats per endpoint,
+ * like their {@link CircuitBreaker}, so names that contain a username do
+ * not each get their own.
+ * <br><br>
+ * Stats are created on first use and registered with the platform MBean
+ * server, i.e. in jconsole under {@code me.timothy.bots} as type
+ * Retryable; {@link #getAll()} gives the same numbers in-process. Safe
+ * to share between threads.
+ *
+ * @author Timothy
+ */
+public class RetryStats implements RetryStatsMBean {
+	/** The stats for each endpoint */
+	private static final ConcurrentMap<String, RetryStats> STATS = new ConcurrentHashMap<>();
+
+	/** The endpoint */
+	private String endpoint;
+
+	/** Calls to runImpl */
+	private AtomicLong attempts;
+
+	/** Runs that ended with a result */
+	private AtomicLong successes;
+
+	/** Attempts that threw or returned null */
+	private AtomicLong failures;
+
+	/** Runs that ended without a result */
+	private AtomicLong giveUps;
+
+	/** Failures by the simple name of the exception */
+	private ConcurrentMap<String, AtomicLong> failuresByType;
+
+	/** Retries currently waiting to be attempted */
+	private AtomicInteger inFlight;
+
+	/** Durations of attempts */
+	private LatencyHistogram attemptLatency;
+
+	/** Waits between attempts */
+	private LatencyHistogram backoff;
+
+	/**
+	 * Creates empty stats
+	 *
+	 * @param endpoint the endpoint
+	 */
+	public RetryStats(String endpoint) {
+		this.endpoint = endpoint;
+		attempts = new AtomicLong();
+		successes = new AtomicLong();
+		failures = new AtomicLong();
+		giveUps = new AtomicLong();
+		failuresByType = new ConcurrentHashMap<>();
+		inFlight = new AtomicInteger();
+		attemptLatency = new LatencyHistogram();
+		backoff = new LatencyHistogram();
+	}
+
+	/**
+	 * Gets the shared stats for the endpoint of the specified name,
+	 * creating and registering them if necessary
+	 *
+	 * @param name the name of a retryable
+	 * @return the stats for its endpoint
+	 * @see CircuitBreaker#endpointOf(String)
+	 */
+	public static RetryStats forName(String name) {
+		String endpoint = CircuitBreaker.endpointOf(name);
+		RetryStats stats = STATS.get(endpoint);
+		if(stats != null)
+			return stats;
+
+		stats = new RetryStats(endpoint);
+		RetryStats existing = STATS.putIfAbsent(endpoint, stats);
+		if(existing != null)
+			return existing;
+
+		stats.register();
+		return stats;
+	}
+
+	/**
+	 * Gets the stats of every endpoint seen so far
+	 *
+	 * @return the stats by endpoint, sorted by endpoint
+	 */
+	public static Map<String, RetryStats> getAll() {
+		return new TreeMap<>(STATS);
+	}
+
+	/**
+	 * Records a call to runImpl
+	 *
+	 * @param nanos how long it took
+	 */
+	public void recordAttempt(long nanos) {
+		attempts.incrementAndGet();
+		attemptLatency.record(nanos);
+	}
+
+	/**
+	 * Records an attempt that threw or returned null
+	 *
+	 * @param failure what was thrown, or null
+	 */
+	public void recordFailure(Exception failure) {
+		failures.incrementAndGet();
+
+		String type = failure == null ? "null" : failure.getClass().getSimpleName();
+		AtomicLong count = failuresByType.get(type);
+		if(count == null) {
+			AtomicLong created = new AtomicLong();
+			count = failuresByType.putIfAbsent(type, created);
+			if(count == null)
+				count = created;
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Records a run that ended with a result
+	 */
+	public void recordSuccess() {
+		successes.incrementAndGet();
+	}
+
+	/**
+	 * Records a run that ended without a result
+	 */
+	public void recordGiveUp() {
+		giveUps.incrementAndGet();
+	}
+
+	/**
+	 * Records the start of a wait before the next attempt
+	 *
+	 * @param ms how long the wait is, in milliseconds
+	 */
+	public void backoffStarted(long ms) {
+		inFlight.incrementAndGet();
+		backoff.record(ms * 1000000);
+	}
+
+	/**
+	 * Records the end of a wait started by {@link #backoffStarted(long)}
+	 */
+	public void backoffFinished() {
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * Gets the durations of attempts
+	 *
+	 * @return the attempt histogram
+	 */
+	public LatencyHistogram getAttemptLatency() {
+		return attemptLatency;
+	}
+
+	/**
+	 * Gets the waits between attempts
+	 *
+	 * @return the backoff histogram
+	 */
+	public LatencyHistogram getBackoff() {
+		return backoff;
+	}
+
+	/**
+	 * Gets the failures by the simple name of the exception
+	 *
+	 * @return a copy of the counts, "null" for a null result
+	 */
+	public Map<String, Long> getFailureCounts() {
+		Map<String, Long> result = new TreeMap<>();
+		for(Entry<String, AtomicLong> entry : failuresByType.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().get());
+		}
+		return result;
+	}
+
+	@Override
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	@Override
+	public long getAttempts() {
+		return attempts.get();
+	}
+
+	@Override
+	public long getSuccesses() {
+		return successes.get();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.get();
+	}
+
+	@Override
+	public long getGiveUps() {
+		return giveUps.get();
+	}
+
+	@Override
+	public String getFailuresByType() {
+		return getFailureCounts().toString();
+	}
+
+	@Override
+	public int getInFlightRetries() {
+		return inFlight.get();
+	}
+
+	@Override
+	public double getAttemptMeanMicros() {
+		return attemptLatency.getMeanNanos() / 1000.0;
+	}
+
+	@Override
+	public double getAttemptP99Micros() {
+		return attemptLatency.getPercentileNanos(0.99) / 1000.0;
+	}
+
+	@Override
+	public long getBackoffCount() {
+		return backoff.getCount();
+	}
+
+	@Override
+	public double getBackoffTotalMillis() {
+		return backoff.getTotalNanos() / 1000000.0;
+	}
+
+	@Override
+	public double getBackoffMaxMillis() {
+		return backoff.getMaxNanos() / 1000000.0;
+	}
+
+	/**
+	 * Resets every counter and histogram to 0, except retries that are
+	 * currently waiting
+	 */
+	@Override
+	public void resetCounters() {
+		attempts.set(0);
+		successes.set(0);
+		failures.set(0);
+		giveUps.set(0);
+		failuresByType.clear();
+		attemptLatency.reset();
+		backoff.reset();
+	}
+
+	/**
+	 * Registers this with the platform MBean server. A failure is only
+	 * logged, since the numbers are still available in-process.
+	 */
+	private void register() {
+		try {
+			ObjectName objectName = new ObjectName("me.timothy.bots:type=Retryable,name=" + ObjectName.quote(endpoint));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		} catch (JMException e) {
+			Logger logger = LogManager.getLogger();
+			logger.warn("Failed to register retry stats for " + endpoint + ": " + e);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package me.timothy.bots;
+
+/**
+ * The attributes of a {@link RetryStats} exposed through JMX.
+ * Attempt durations are in microseconds and backoff in milliseconds.
+ *
+ * @author Timothy
+ */
+public interface RetryStatsMBean {
+	/**
+	 * @return the endpoint these are the numbers for
+	 */
+	String getEndpoint();
+
+	/**
+	 * @return the number of times runImpl was called
+	 */
+	long getAttempts();
+
+	/**
+	 * @return the number of runs that ended with a result
+	 */
+	long getSuccesses();
+
+	/**
+	 * @return the number of attempts that threw or returned null
+	 */
+	long getFailures();
+
+	/**
+	 * @return the number of runs that ended without a result
+	 */
+	long getGiveUps();
+
+	/**
+	 * @return the failures by the simple name of the exception, "null" for a null result
+	 */
+	String getFailuresByType();
+
+	/**
+	 * @return the number of retries currently waiting to be attempted
+	 */
+	int getInFlightRetries();
+
+	/**
+	 * @return the mean duration of an attempt
+	 */
+	double getAttemptMeanMicros();
+
+	/**
+	 * @return the 99th percentile duration of an attempt
+	 */
+	double getAttemptP99Micros();
+
+	/**
+	 * @return the number of waits between attempts, including waits for the circuit breaker
+	 */
+	long getBackoffCount();
+
+	/**
+	 * @return the total time spent waiting between attempts
+	 */
+	double getBackoffTotalMillis();
+
+	/**
+	 * @return the longest wait between attempts
+	 */
+	double getBackoffMaxMillis();
+
+	/**
+	 * Resets every counter and histogram to 0
+	 */
+	void resetCounters();
+}
@@ -2,7 +2,13 @@ package me.timothy.bots;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -16,13 +22,25 @@ import org.apache.logging.log4j.Logger;
  * @param <T> what is returned
  */
 public abstract class Retryable<T> {
-	private static final Random RANDOM = new Random();
+	/** The number of threads that run asynchronous retries */
+	private static final int RETRY_THREADS = 2;
+	
+	/** Runs the retries of every asynchronous retryable */
+	private static ScheduledExecutorService retryExecutor;
 	
 	/**
 	 * Marks that this should fail on exceptions by
 	 * propagating said exception. 
 	 */
 	public static final short FAIL_ON_EXCEPTION = 0;
+	
+	/**
+	 * Marks that this should give up right away, rather than wait,
+	 * while the circuit breaker for its endpoint is open.
+	 * 
+	 * @see CircuitBreaker
+	 */
+	public static final short FAIL_FAST_WHEN_OPEN = 1;
 
 	/** The logger. */
 	private Logger logger;
@@ -43,6 +61,15 @@ public abstract class Retryable<T> {
 	 */
 	private List<Runnable> failCallbacks;
 	
+	/** The most attempts before giving up, or 0 for no limit */
+	private int maxAttempts;
+	
+	/** The most time in milliseconds from the first attempt before giving up, or 0 for no limit */
+	private long maxElapsedMs;
+	
+	/** Decides how long to wait after a failure; null for {@link RetryPolicies#DEFAULT} */
+	private RetryPolicy policy;
+	
 	/**
 	 * Instantiates a new retryable.
 	 *
@@ -96,42 +123,325 @@ public abstract class Retryable<T> {
 	}
 	
 	/**
-	 * Runs runImpl until the result is non-null.
+	 * Limits how long this retries. Once the attempts are used up, or the
+	 * next attempt would start after the elapsed time is up, this gives up
+	 * as if runImpl had failed for good.
+	 * 
+	 * @param maxAttempts the most attempts, or 0 for no limit
+	 * @param maxElapsedMs the most time in milliseconds from the first attempt, or 0 for no limit
+	 * @return this retryable
+	 */
+	public Retryable<T> withBudget(int maxAttempts, long maxElapsedMs) {
+		this.maxAttempts = maxAttempts;
+		this.maxElapsedMs = maxElapsedMs;
+		return this;
+	}
+	
+	/**
+	 * Decides how this reacts to failures, instead of {@link RetryPolicies#DEFAULT}
+	 * 
+	 * @param policy the policy
+	 * @return this retryable
+	 */
+	public Retryable<T> withPolicy(RetryPolicy policy) {
+		this.policy = policy;
+		return this;
+	}
+	
+	/**
+	 * Runs runImpl until the result is non-null. While the circuit breaker
+	 * shared by every retryable with the same endpoint is open, this waits
+	 * without calling runImpl, or gives up if FAIL_FAST_WHEN_OPEN is set.
 	 * 
-	 * @return runImpl's non-null result upon success, null on failure
+	 * @return runImpl's non-null result upon success, null on failure,
+	 * once the budget is used up, or if the policy gives up
+	 * @see CircuitBreaker#endpointOf(String)
+	 * @see RetryPolicy
+	 * @see RetryStats
 	 */
 	public T run() {
-		int duration = 10000, times = 0;
+		CircuitBreaker breaker = CircuitBreaker.forName(name);
+		RetryStats stats = RetryStats.forName(name);
+		long start = System.currentTimeMillis();
+		int times = 0;
 		T result = null;
-		do {
-			try {
-				result = runImpl();
-			} catch (Exception e) {
-				e.printStackTrace();
-				logger.catching(e);
-				for(short s : params) {
-					if(s == FAIL_ON_EXCEPTION)
+		try {
+			do {
+				long blocked = breaker.tryPass();
+				if(blocked > 0) {
+					if(hasParam(FAIL_FAST_WHEN_OPEN) || budgetExhausted(start, times, blocked))
 						return null;
+					
+					logger.debug(name + " is waiting " + blocked + " for its circuit to close");
+					sleep(stats, blocked);
+					continue;
 				}
+				
+				Exception failure = null;
+				long attemptStart = System.nanoTime();
+				try {
+					result = runImpl();
+				} catch (Exception e) {
+					e.printStackTrace();
+					logger.catching(e);
+					failure = e;
+				}
+				stats.recordAttempt(System.nanoTime() - attemptStart);
+				if(result != null) {
+					breaker.recordSuccess();
+					stats.recordSuccess();
+					return result;
+				}
+				stats.recordFailure(failure);
+				if(failure != null && failOnException()) {
+					breaker.recordFailure();
+					return null;
+				}
+				times++;
+				long sleepTime = nextDelay(breaker, failure, times);
+				if(sleepTime < 0)
+					return null;
+				onFailure();
+				callFailureCallbacks();
+				if(budgetExhausted(start, times, sleepTime))
+					return null;
+				
+				logger.debug(name + " failed (#" + times + "); retrying in " + sleepTime);
+				sleep(stats, sleepTime);
+			}while(true);
+		}finally {
+			if(result == null)
+				stats.recordGiveUp();
+		}
+	}
+	
+	/**
+	 * Runs runImpl until the result is non-null without blocking between
+	 * attempts. The first attempt runs on the calling thread; each retry is
+	 * scheduled on a small pool shared by every retryable, so a failing
+	 * action waits in the background instead of holding a thread.
+	 * <br><br>
+	 * The future completes with runImpl's non-null result, or with null once
+	 * the budget is used up. While the circuit breaker for the endpoint is
+	 * open, attempts are rescheduled until it lets them through, or the
+	 * future completes with null if FAIL_FAST_WHEN_OPEN is set. If
+	 * FAIL_ON_EXCEPTION is set and runImpl throws, it completes exceptionally
+	 * with that exception instead. Cancelling the future stops further retries.
+	 * 
+	 * @return a future for runImpl's non-null result
+	 */
+	public CompletableFuture<T> runAsync() {
+		final RetryStats stats = RetryStats.forName(name);
+		CompletableFuture<T> future = new CompletableFuture<>();
+		future.whenComplete(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(T result, Throwable failure) {
+				if(result != null)
+					stats.recordSuccess();
+				else
+					stats.recordGiveUp();
 			}
-			if(result != null)
-				return result;
-			onFailure();
-			callFailureCallbacks();
-			times++;
-			long sleepTime = (long) (duration * Math.pow(2, RANDOM.nextInt(times)));
-			if(sleepTime > 1000 * 60 * 30) {
-				sleepTime = 1000 * 60 * 30; // 30 minutes
+		});
+		attemptAsync(future, System.currentTimeMillis(), 0);
+		return future;
+	}
+	
+	/**
+	 * Makes one attempt for runAsync, scheduling the next if it fails
+	 * 
+	 * @param future the future to complete
+	 * @param start when the first attempt started
+	 * @param times the number of attempts that have failed so far
+	 */
+	private void attemptAsync(final CompletableFuture<T> future, final long start, final int times) {
+		if(future.isDone())
+			return;
+		
+		CircuitBreaker breaker = CircuitBreaker.forName(name);
+		long blocked = breaker.tryPass();
+		if(blocked > 0) {
+			if(hasParam(FAIL_FAST_WHEN_OPEN) || budgetExhausted(start, times, blocked)) {
+				future.complete(null);
+				return;
 			}
 			
-			logger.debug(name + " failed (#" + times + "); retrying in " + sleepTime);
-			try {
-				Thread.sleep(sleepTime);
-			}catch(InterruptedException ex) {
-				logger.throwing(ex);
-				throw new RuntimeException(ex);
+			logger.debug(name + " is waiting " + blocked + " in the background for its circuit to close");
+			schedule(future, start, times, blocked);
+			return;
+		}
+		
+		RetryStats stats = RetryStats.forName(name);
+		T result = null;
+		Exception failure = null;
+		long attemptStart = System.nanoTime();
+		try {
+			result = runImpl();
+		} catch (Exception e) {
+			logger.catching(e);
+			failure = e;
+		}
+		stats.recordAttempt(System.nanoTime() - attemptStart);
+		if(result != null) {
+			breaker.recordSuccess();
+			future.complete(result);
+			return;
+		}
+		stats.recordFailure(failure);
+		if(failure != null && failOnException()) {
+			breaker.recordFailure();
+			future.completeExceptionally(failure);
+			return;
+		}
+		
+		long delay = nextDelay(breaker, failure, times + 1);
+		if(delay < 0) {
+			future.complete(null);
+			return;
+		}
+		
+		try {
+			onFailure();
+			callFailureCallbacks();
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+			return;
+		}
+		
+		if(budgetExhausted(start, times + 1, delay)) {
+			future.complete(null);
+			return;
+		}
+		
+		logger.debug(name + " failed (#" + (times + 1) + "); retrying in " + delay + " in the background");
+		schedule(future, start, times + 1, delay);
+	}
+	
+	/**
+	 * Schedules an attempt for runAsync on the shared retry executor
+	 * 
+	 * @param future the future to complete
+	 * @param start when the first attempt started
+	 * @param times the number of attempts that have failed so far
+	 * @param delay the time to wait in milliseconds
+	 */
+	private void schedule(final CompletableFuture<T> future, final long start, final int times, long delay) {
+		final RetryStats stats = RetryStats.forName(name);
+		stats.backoffStarted(delay);
+		getRetryExecutor().schedule(new Runnable() {
+			@Override
+			public void run() {
+				stats.backoffFinished();
+				attemptAsync(future, start, times);
 			}
-		}while(true);
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Sleeps the calling thread, counting the wait in the stats
+	 * 
+	 * @param stats the stats for the endpoint
+	 * @param ms the time to sleep in milliseconds
+	 * @throws RuntimeException if interrupted
+	 */
+	private void sleep(RetryStats stats, long ms) {
+		stats.backoffStarted(ms);
+		try {
+			Thread.sleep(ms);
+		}catch(InterruptedException ex) {
+			logger.throwing(ex);
+			throw new RuntimeException(ex);
+		}finally {
+			stats.backoffFinished();
+		}
+	}
+	
+	/**
+	 * Checks if another attempt is out of budget, logging if it is
+	 * 
+	 * @param start when the first attempt started
+	 * @param times the number of attempts that have failed so far
+	 * @param delay the time until the next attempt would start
+	 * @return if this should give up
+	 */
+	private boolean budgetExhausted(long start, int times, long delay) {
+		if(maxAttempts > 0 && times >= maxAttempts) {
+			logger.warn(name + " failed " + times + " times; giving up");
+			return true;
+		}
+		
+		long elapsed = System.currentTimeMillis() - start;
+		if(maxElapsedMs > 0 && elapsed + delay > maxElapsedMs) {
+			logger.warn(name + " failed " + times + " times in " + elapsed + "ms and the next attempt would be after " + maxElapsedMs + "ms; giving up");
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Checks if FAIL_ON_EXCEPTION was passed
+	 * 
+	 * @return if exceptions should not be retried
+	 */
+	private boolean failOnException() {
+		return hasParam(FAIL_ON_EXCEPTION);
+	}
+	
+	/**
+	 * Checks if the specified constant was passed
+	 * 
+	 * @param param the constant
+	 * @return if it was passed
+	 */
+	private boolean hasParam(short param) {
+		for(short s : params) {
+			if(s == param)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Asks the policy how long to wait after a failed attempt, and records
+	 * the outcome in the circuit breaker. A failure the policy gives up on
+	 * means the endpoint answered and the request itself is bad, so it
+	 * does not count against the endpoint.
+	 * 
+	 * @param breaker the circuit breaker for the endpoint
+	 * @param failure what runImpl threw, or null if it returned null
+	 * @param times the number of attempts that have failed, at least 1
+	 * @return the time to wait in milliseconds, or a negative number to give up
+	 */
+	private long nextDelay(CircuitBreaker breaker, Exception failure, int times) {
+		long delay = (policy != null ? policy : RetryPolicies.DEFAULT).delayFor(failure, times);
+		if(delay < 0) {
+			breaker.recordSuccess();
+			logger.warn(name + " failed with " + failure + ", which will not succeed on retry; giving up");
+			return delay;
+		}
+		
+		breaker.recordFailure();
+		return delay;
+	}
+	
+	/**
+	 * Gets the pool that runs asynchronous retries, creating it if necessary.
+	 * Its threads are daemons so it never keeps the process alive.
+	 * 
+	 * @return the retry executor
+	 */
+	private static synchronized ScheduledExecutorService getRetryExecutor() {
+		if(retryExecutor == null) {
+			final AtomicInteger counter = new AtomicInteger();
+			retryExecutor = Executors.newScheduledThreadPool(RETRY_THREADS, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "retryable-" + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return retryExecutor;
 	}
 	
 	private void callFailureCallbacks()
@@ -0,0 +1,230 @@
+package me.timothy.bots;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The state one summon keeps between things, as typed values under
+ * string keys. Every read and write happens in memory; the database
+ * writes whatever changed back in one batch once per loop, so summons
+ * never do their own file i/o while handling a thing.
+ * <br><br>
+ * Obtained from {@link Database#getState(String)}. Values are stored as
+ * strings, so a value put with one type can be read with another if it
+ * parses. Safe to use from several threads.
+ *
+ * @author Timothy
+ */
+public class SummonState {
+	/** The namespace, usually the summon's name */
+	private String namespace;
+
+	/** The current value of every key */
+	private Map<String, String> values;
+
+	/** Keys written or removed since the last flush */
+	private Set<String> changed;
+
+	/**
+	 * Creates the state for a namespace with the values already stored
+	 *
+	 * @param namespace the namespace
+	 * @param values the values that were stored
+	 */
+	SummonState(String namespace, Map<String, String> values) {
+		this.namespace = namespace;
+		this.values = new HashMap<>(values);
+		this.changed = new HashSet<>();
+	}
+
+	/**
+	 * Gets the namespace of this state
+	 *
+	 * @return the namespace
+	 */
+	public String getNamespace() {
+		return namespace;
+	}
+
+	/**
+	 * Gets the value of the key
+	 *
+	 * @param key the key
+	 * @return the value, or null if there is none
+	 */
+	public synchronized String getString(String key) {
+		return values.get(key);
+	}
+
+	/**
+	 * Gets the value of the key
+	 *
+	 * @param key the key
+	 * @param def what to return if there is no value
+	 * @return the value, or def if there is none
+	 */
+	public synchronized String getString(String key, String def) {
+		String value = values.get(key);
+		return value == null ? def : value;
+	}
+
+	/**
+	 * Gets the value of the key as a long
+	 *
+	 * @param key the key
+	 * @param def what to return if there is no value
+	 * @return the value, or def if there is none
+	 * @throws NumberFormatException if the value is not a long
+	 */
+	public synchronized long getLong(String key, long def) {
+		String value = values.get(key);
+		return value == null ? def : Long.parseLong(value);
+	}
+
+	/**
+	 * Gets the value of the key as an int
+	 *
+	 * @param key the key
+	 * @param def what to return if there is no value
+	 * @return the value, or def if there is none
+	 * @throws NumberFormatException if the value is not an int
+	 */
+	public synchronized int getInt(String key, int def) {
+		String value = values.get(key);
+		return value == null ? def : Integer.parseInt(value);
+	}
+
+	/**
+	 * Gets the value of the key as a double
+	 *
+	 * @param key the key
+	 * @param def what to return if there is no value
+	 * @return the value, or def if there is none
+	 * @throws NumberFormatException if the value is not a double
+	 */
+	public synchronized double getDouble(String key, double def) {
+		String value = values.get(key);
+		return value == null ? def : Double.parseDouble(value);
+	}
+
+	/**
+	 * Gets the value of the key as a boolean
+	 *
+	 * @param key the key
+	 * @param def what to return if there is no value
+	 * @return the value, or def if there is none
+	 */
+	public synchronized boolean getBoolean(String key, boolean def) {
+		String value = values.get(key);
+		return value == null ? def : Boolean.parseBoolean(value);
+	}
+
+	/**
+	 * Sets the value of the key
+	 *
+	 * @param key the key
+	 * @param value the value, or null to remove the key
+	 */
+	public synchronized void put(String key, String value) {
+		if(value == null) {
+			remove(key);
+			return;
+		}
+
+		String old = values.put(key, value);
+		if(!value.equals(old))
+			changed.add(key);
+	}
+
+	/**
+	 * Sets the value of the key
+	 *
+	 * @param key the key
+	 * @param value the value
+	 */
+	public void put(String key, long value) {
+		put(key, Long.toString(value));
+	}
+
+	/**
+	 * Sets the value of the key
+	 *
+	 * @param key the key
+	 * @param value the value
+	 */
+	public void put(String key, double value) {
+		put(key, Double.toString(value));
+	}
+
+	/**
+	 * Sets the value of the key
+	 *
+	 * @param key the key
+	 * @param value the value
+	 */
+	public void put(String key, boolean value) {
+		put(key, Boolean.toString(value));
+	}
+
+	/**
+	 * Removes the key
+	 *
+	 * @param key the key
+	 */
+	public synchronized void remove(String key) {
+		if(values.remove(key) != null)
+			changed.add(key);
+	}
+
+	/**
+	 * Checks if the key has a value
+	 *
+	 * @param key the key
+	 * @return if there is a value for the key
+	 */
+	public synchronized boolean containsKey(String key) {
+		return values.containsKey(key);
+	}
+
+	/**
+	 * Gets every key that has a value
+	 *
+	 * @return a copy of the keys
+	 */
+	public synchronized Set<String> keys() {
+		return new HashSet<>(values.keySet());
+	}
+
+	/**
+	 * Checks if anything changed since the last flush
+	 *
+	 * @return if there are changes to write
+	 */
+	synchronized boolean isDirty() {
+		return !changed.isEmpty();
+	}
+
+	/**
+	 * Copies the values into {@code valuesOut} and the keys that changed
+	 * into {@code changedOut}, then forgets the changes
+	 *
+	 * @param valuesOut receives every value
+	 * @param changedOut receives the keys written or removed since the last flush
+	 */
+	synchronized void drainChanges(Map<String, String> valuesOut, Set<String> changedOut) {
+		valuesOut.putAll(values);
+		changedOut.addAll(changed);
+		changed.clear();
+	}
+
+	/**
+	 * Marks the keys as changed again after writing them failed
+	 *
+	 * @param keys the keys that were not written
+	 */
+	synchronized void markChanged(Set<String> keys) {
+		changed.addAll(keys);
+	}
+}
@@ -0,0 +1,419 @@
+package me.timothy.bots.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import me.timothy.bots.Database;
+import me.timothy.bots.SummonState;
+
+/**
+ * Puts a bloom filter in front of another database. Fresh listings
+ * are almost entirely fullnames that have never been seen, and the
+ * filter answers those without touching the backing database at all;
+ * only fullnames the filter might contain are passed through.
+ * <br><br>
+ * The filter is not persisted. Call {@link #rebuild()} after loading the
+ * backing database, which requires that it supports
+ * {@link Database#getFullnames()}; a {@link WatermarkDatabase} does not,
+ * and is refused. The counters show how often the filter
+ * answered on its own and how often it was wrong, which is what is
+ * needed to size it.
+ * <br><br>
+ * The filter and counters are safe to share between threads, as long as
+ * the backing database is. {@link #rebuild()} should not run at the same
+ * time as adds, since bits set during it may be cleared.
+ * <br><br>
+ * Claims through {@link #addIfAbsent(String)} and
+ * {@link #addAllIfAbsent(List)} are serialized by this filter, so a
+ * fullname the filter rules out can be added with the backing database's
+ * plain {@link Database#addFullname(String)} or
+ * {@link Database#addAll(Collection)} instead of its atomic claim. That
+ * is only exact if every claim goes through this filter, so it is not
+ * done for a {@link SharedFullnameDatabase}, which other processes claim
+ * from too; there the filter gives no benefit on the claim path and only
+ * speeds up {@link #filterUnseen(List)} and
+ * {@link #containsFullname(String)}.
+ *
+ * @author Timothy
+ */
+public class BloomFilterDatabase extends Database {
+	/** The database that actually remembers fullnames */
+	private Database backing;
+
+	/** The bits of the filter */
+	private AtomicLongArray bits;
+
+	/** The number of bits in the filter */
+	private long numBits;
+
+	/** The number of bits set for each fullname */
+	private int numHashes;
+
+	/** If claims may skip the backing database's atomic claim for fullnames the filter rules out */
+	private boolean fastClaims;
+
+	/** The number of calls to containsFullname */
+	private AtomicLong lookups;
+
+	/** Lookups that the filter answered without the backing database */
+	private AtomicLong definiteMisses;
+
+	/** Lookups the filter passed through that the backing database did not contain */
+	private AtomicLong falsePositives;
+
+	/**
+	 * Creates a bloom filter in front of the specified database, sized
+	 * so that after {@code expectedFullnames} adds, roughly
+	 * {@code falsePositiveRate} of unseen fullnames still reach the
+	 * backing database.
+	 *
+	 * @param backing the database to put the filter in front of
+	 * @param expectedFullnames the number of fullnames expected to be in the database
+	 * @param falsePositiveRate the acceptable false positive rate, i.e. 0.01
+	 * @throws IllegalArgumentException if the backing database is a {@link WatermarkDatabase}
+	 */
+	public BloomFilterDatabase(Database backing, long expectedFullnames, double falsePositiveRate) {
+		if(backing instanceof WatermarkDatabase)
+			throw new IllegalArgumentException("A WatermarkDatabase cannot list its fullnames, so the filter could not be rebuilt from it");
+		if(falsePositiveRate <= 0 || falsePositiveRate >= 1)
+			throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1, got " + falsePositiveRate);
+
+		this.backing = backing;
+		this.fastClaims = !(backing instanceof SharedFullnameDatabase);
+
+		double ln2 = Math.log(2);
+		long optimalBits = (long) Math.ceil(-Math.max(expectedFullnames, 1) * Math.log(falsePositiveRate) / (ln2 * ln2));
+		bits = new AtomicLongArray((int) Math.max(1, (optimalBits + 63) / 64));
+		numBits = bits.length() * 64L;
+		numHashes = Math.max(1, (int) Math.round(numBits / (double) Math.max(expectedFullnames, 1) * ln2));
+		lookups = new AtomicLong();
+		definiteMisses = new AtomicLong();
+		falsePositives = new AtomicLong();
+	}
+
+	@Override
+	public void addFullname(String id) {
+		backing.addFullname(id);
+		set(id);
+	}
+
+	@Override
+	public boolean containsFullname(String id) {
+		lookups.incrementAndGet();
+		if(!mightContain(id)) {
+			definiteMisses.incrementAndGet();
+			return false;
+		}
+
+		boolean result = backing.containsFullname(id);
+		if(!result)
+			falsePositives.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * Drops every fullname the filter rules out, then asks the backing
+	 * database about the rest in a single call.
+	 */
+	@Override
+	public List<String> filterUnseen(List<String> ids) {
+		List<String> maybeSeen = new ArrayList<>();
+		for(String id : ids) {
+			lookups.incrementAndGet();
+			if(mightContain(id)) {
+				maybeSeen.add(id);
+			}else {
+				definiteMisses.incrementAndGet();
+			}
+		}
+		if(maybeSeen.isEmpty())
+			return new ArrayList<>(ids);
+
+		Set<String> passed = new HashSet<>(maybeSeen);
+		Set<String> unseen = new HashSet<>(backing.filterUnseen(maybeSeen));
+		falsePositives.addAndGet(unseen.size());
+
+		List<String> result = new ArrayList<>(ids.size());
+		for(String id : ids) {
+			if(!passed.contains(id) || unseen.contains(id))
+				result.add(id);
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the fullname with the backing database's plain add if the
+	 * filter rules it out, otherwise claims it from the backing database.
+	 */
+	@Override
+	public boolean addIfAbsent(String id) {
+		if(!fastClaims) {
+			boolean added = backing.addIfAbsent(id);
+			set(id);
+			return added;
+		}
+
+		synchronized(this) {
+			boolean added;
+			if(mightContain(id)) {
+				added = backing.addIfAbsent(id);
+			}else {
+				backing.addFullname(id);
+				added = true;
+			}
+			set(id);
+			return added;
+		}
+	}
+
+	/**
+	 * Adds the fullnames the filter rules out with the backing database's
+	 * plain add, and claims only the rest from the backing database.
+	 */
+	@Override
+	public List<String> addAllIfAbsent(List<String> ids) {
+		if(!fastClaims) {
+			List<String> added = backing.addAllIfAbsent(ids);
+			for(String id : ids) {
+				set(id);
+			}
+			return added;
+		}
+
+		synchronized(this) {
+			List<String> definitelyNew = new ArrayList<>();
+			List<String> maybeSeen = new ArrayList<>();
+			Set<String> batch = new HashSet<>();
+			for(String id : ids) {
+				if(!batch.add(id) || mightContain(id)) {
+					maybeSeen.add(id);
+				}else {
+					definitelyNew.add(id);
+				}
+			}
+
+			if(!definitelyNew.isEmpty())
+				backing.addAll(definitelyNew);
+			Set<String> added = new HashSet<>(definitelyNew);
+			if(!maybeSeen.isEmpty())
+				added.addAll(backing.addAllIfAbsent(maybeSeen));
+
+			List<String> result = new ArrayList<>(added.size());
+			for(String id : ids) {
+				if(added.remove(id))
+					result.add(id);
+			}
+			for(String id : ids) {
+				set(id);
+			}
+			return result;
+		}
+	}
+
+	@Override
+	public void addAll(Collection<String> ids) {
+		backing.addAll(ids);
+		for(String id : ids) {
+			set(id);
+		}
+	}
+
+	@Override
+	public Iterable<String> getFullnames() {
+		return backing.getFullnames();
+	}
+
+	@Override
+	public int size() {
+		return backing.size();
+	}
+
+	/**
+	 * Adds the bits of the filter to the backing database's estimate
+	 */
+	@Override
+	public long estimatedBytes() {
+		long backingBytes = backing.estimatedBytes();
+		return backingBytes < 0 ? -1 : backingBytes + 8L * bits.length();
+	}
+
+	@Override
+	public SummonState getState(String namespace) {
+		return backing.getState(namespace);
+	}
+
+	@Override
+	public void flushState() {
+		backing.flushState();
+	}
+
+	@Override
+	public long getRetention() {
+		return backing.getRetention();
+	}
+
+	@Override
+	public void setRetention(long retentionMs) {
+		backing.setRetention(retentionMs);
+	}
+
+	/**
+	 * Evicts expired fullnames from the backing database. Their bits
+	 * stay set, which only raises the false positive rate; call
+	 * {@link #rebuild()} now and then to clear them.
+	 */
+	@Override
+	public void evictExpired() {
+		backing.evictExpired();
+	}
+
+	@Override
+	public void flush() {
+		backing.flush();
+	}
+
+	/**
+	 * Clears the filter and adds every fullname in the backing database
+	 * to it. This must be done after the backing database is loaded.
+	 */
+	public void rebuild() {
+		for(int i = 0; i < bits.length(); i++) {
+			bits.set(i, 0);
+		}
+		for(String id : backing.getFullnames()) {
+			set(id);
+		}
+	}
+
+	/**
+	 * Gets the database behind this filter
+	 *
+	 * @return the backing database
+	 */
+	public Database getBacking() {
+		return backing;
+	}
+
+	/**
+	 * Gets the number of calls to containsFullname
+	 *
+	 * @return the number of lookups
+	 */
+	public long getLookups() {
+		return lookups.get();
+	}
+
+	/**
+	 * Gets the number of lookups the filter answered without
+	 * touching the backing database
+	 *
+	 * @return the number of definite misses
+	 */
+	public long getDefiniteMisses() {
+		return definiteMisses.get();
+	}
+
+	/**
+	 * Gets the number of lookups the filter passed through to
+	 * the backing database which turned out not to be there
+	 *
+	 * @return the number of false positives
+	 */
+	public long getFalsePositives() {
+		return falsePositives.get();
+	}
+
+	/**
+	 * Gets the fraction of lookups the filter answered on its own
+	 *
+	 * @return definite misses over lookups, or 0 if there were no lookups
+	 */
+	public double getFilterHitRate() {
+		long lookups = this.lookups.get();
+		return lookups == 0 ? 0 : definiteMisses.get() / (double) lookups;
+	}
+
+	/**
+	 * Gets the observed false positive rate, that is the fraction of
+	 * fullnames not in the database that the filter still passed through
+	 *
+	 * @return false positives over all lookups that missed, or 0 if none missed
+	 */
+	public double getFalsePositiveRate() {
+		long falsePositives = this.falsePositives.get();
+		long misses = definiteMisses.get() + falsePositives;
+		return misses == 0 ? 0 : falsePositives / (double) misses;
+	}
+
+	/**
+	 * Resets the lookup counters to 0
+	 */
+	public void resetCounters() {
+		lookups.set(0);
+		definiteMisses.set(0);
+		falsePositives.set(0);
+	}
+
+	/**
+	 * Sets every bit for the fullname. Each word is updated with a
+	 * compare and set, so concurrent adds never lose each other's bits.
+	 *
+	 * @param id the fullname
+	 */
+	private void set(String id) {
+		long hash = hash(id);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for(int i = 0; i < numHashes; i++) {
+			long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+			long old;
+			do {
+				old = bits.get(word);
+				if((old & mask) != 0)
+					break;
+			} while(!bits.compareAndSet(word, old, old | mask));
+		}
+	}
+
+	/**
+	 * Checks if every bit for the fullname is set
+	 *
+	 * @param id the fullname
+	 * @return false if the fullname is definitely not in the filter
+	 */
+	private boolean mightContain(String id) {
+		long hash = hash(id);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for(int i = 0; i < numHashes; i++) {
+			long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+			if((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Hashes the fullname with 64-bit FNV-1a. The two halves of the
+	 * hash are combined to derive every bit position.
+	 *
+	 * @param id the fullname
+	 * @return the hash
+	 */
+	private static long hash(String id) {
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < id.length(); i++) {
+			hash ^= id.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 29;
+		return hash;
+	}
+}
@@ -0,0 +1,50 @@
+package me.timothy.bots.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link FlatFileDatabase} that may be used from any number of
+ * threads at once. Fullnames are kept in a {@link ConcurrentHashMap},
+ * so lookups never lock and adds only contend when they land in the
+ * same bin, and {@link #addIfAbsent(String)} is a single atomic
+ * {@code putIfAbsent}. Handlers on separate threads can therefore
+ * claim things without any lock of their own.
+ * <br><br>
+ * Uses the same file format as {@link FlatFileDatabase}, although
+ * fullnames are not saved in the order they were added. Saving while
+ * other threads add fullnames is safe, but may or may not include the
+ * fullnames added during the save.
+ * 
+ * @author Timothy
+ */
+public class ConcurrentFlatFileDatabase extends FlatFileDatabase {
+	/** The same map that the flat file database uses */
+	private ConcurrentHashMap<String, Long> fullnames;
+	
+	/**
+	 * Creates an empty concurrent flat file database
+	 */
+	public ConcurrentFlatFileDatabase() {
+		this(new ConcurrentHashMap<String, Long>());
+	}
+	
+	/**
+	 * Creates a concurrent flat file database around the specified map
+	 * 
+	 * @param fullnames the empty map from each fullname to when it was added
+	 */
+	private ConcurrentFlatFileDatabase(ConcurrentHashMap<String, Long> fullnames) {
+		super(fullnames);
+		this.fullnames = fullnames;
+	}
+	
+	@Override
+	public boolean addIfAbsent(String id) {
+		return fullnames.putIfAbsent(id, System.currentTimeMillis()) == null;
+	}
+	
+	@Override
+	protected void addFullname(String id, long addedAt) {
+		fullnames.putIfAbsent(id, addedAt);
+	}
+}
@@ -3,11 +3,25 @@ package me.timothy.bots.impl;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
 
 import me.timothy.bots.Database;
 
@@ -16,27 +30,239 @@ import me.timothy.bots.Database;
  * each file to save a fullname. It is not recommended
  * you use this if you plan on having a more sophisticated
  * database where SQL is more appropriate
+ * <br><br>
+ * Fullnames are kept in a hashed map that remembers insertion
+ * order, so {@code containsFullname} is constant time no matter
+ * how large the history grows, while {@code save} still writes the
+ * fullnames in the order they were added.
+ * <br><br>
+ * The time each fullname was added is recorded so that it can be
+ * evicted once it is older than the retention. When a retention is set
+ * each line is saved as the fullname, a space, and the time it was added
+ * in milliseconds; otherwise only the fullname is saved. Both kinds of
+ * lines can be loaded, and fullnames without a time are treated as if
+ * they were added when they were loaded.
+ * <br><br>
+ * {@link #saveSnapshot(File, boolean)} saves a {@link FullnameSnapshot}
+ * instead, which loads many times faster. {@link #load(File)} accepts
+ * either format, so switching from {@code save} to {@code saveSnapshot}
+ * converts an existing file the next time it is saved.
+ * <br><br>
+ * If a state folder is set, the state of each namespace is kept in
+ * its own properties file in that folder.
  * 
  * @author Timothy
  */
 public class FlatFileDatabase extends Database {
-	private List<String> fullnames;
+	/** The approximate heap used by each fullname, in bytes */
+	private static final long BYTES_PER_FULLNAME = 105;
+	
+	/** Maps each fullname to the time it was added, in insertion order */
+	private Map<String, Long> fullnames;
+	
+	/** The folder holding a properties file per state namespace, or null */
+	private File stateFolder;
 	
 	/**
 	 * Creates a flat file database
 	 */
 	public FlatFileDatabase() {
-		fullnames = new ArrayList<>();
+		this(new LinkedHashMap<String, Long>());
+	}
+	
+	/**
+	 * Creates a flat file database that keeps its fullnames in the
+	 * specified map, for subclasses that need a different kind of map.
+	 * 
+	 * @param fullnames the empty map from each fullname to when it was added
+	 */
+	protected FlatFileDatabase(Map<String, Long> fullnames) {
+		this.fullnames = fullnames;
 	}
 	
 	@Override
 	public void addFullname(String id) {
-		fullnames.add(id);
+		addFullname(id, System.currentTimeMillis());
 	}
 
 	@Override
 	public boolean containsFullname(String id) {
-		return fullnames.contains(id);
+		return fullnames.containsKey(id);
+	}
+	
+	@Override
+	public Iterable<String> getFullnames() {
+		return Collections.unmodifiableSet(fullnames.keySet());
+	}
+	
+	/**
+	 * Removes every fullname older than the retention. Every fullname is
+	 * checked, since insertion order is not the order they were added in
+	 * once fullnames are loaded or added with an explicit time.
+	 */
+	@Override
+	public void evictExpired() {
+		if(getRetention() <= 0)
+			return;
+		
+		long cutoff = System.currentTimeMillis() - getRetention();
+		Iterator<Long> iter = fullnames.values().iterator();
+		while(iter.hasNext()) {
+			if(iter.next() < cutoff)
+				iter.remove();
+		}
+	}
+	
+	/**
+	 * Gets the number of fullnames in this database
+	 * 
+	 * @return the number of fullnames remembered
+	 */
+	@Override
+	public int size() {
+		return fullnames.size();
+	}
+	
+	/**
+	 * Estimates the heap used by each fullname's string, boxed time and
+	 * map entry as what {@code FlatFileDatabaseBenchmark} measures for
+	 * comment fullnames
+	 */
+	@Override
+	public long estimatedBytes() {
+		return BYTES_PER_FULLNAME * fullnames.size();
+	}
+
+	/**
+	 * Sets the folder that the state of each namespace is kept in, 
+	 * creating it if necessary. Until this is set, state only lasts as
+	 * long as the process.
+	 * 
+	 * @param stateFolder the folder, or null to not store state
+	 */
+	public void setStateFolder(File stateFolder) {
+		if(stateFolder != null && !stateFolder.isDirectory() && !stateFolder.mkdirs())
+			throw new RuntimeException("Could not create " + stateFolder);
+		this.stateFolder = stateFolder;
+	}
+	
+	/**
+	 * Reads the namespace's properties file in the state folder
+	 */
+	@Override
+	protected Map<String, String> readNamespace(String namespace) {
+		Map<String, String> result = new HashMap<>();
+		if(stateFolder == null)
+			return result;
+		
+		File file = new File(stateFolder, namespace + ".properties");
+		if(!file.exists())
+			return result;
+		
+		Properties props = new Properties();
+		try(FileInputStream fis = new FileInputStream(file)) {
+			props.load(fis);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		for(String key : props.stringPropertyNames()) {
+			result.put(key, props.getProperty(key));
+		}
+		return result;
+	}
+	
+	/**
+	 * Rewrites the namespace's properties file in the state folder, 
+	 * replacing the old one atomically
+	 */
+	@Override
+	protected void writeNamespace(String namespace, Map<String, String> values, Set<String> changed) {
+		if(stateFolder == null)
+			return;
+		
+		Properties props = new Properties();
+		props.putAll(values);
+		
+		File file = new File(stateFolder, namespace + ".properties");
+		File tmp = new File(stateFolder, namespace + ".properties.tmp");
+		try {
+			try(FileOutputStream fos = new FileOutputStream(tmp)) {
+				props.store(fos, null);
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Adds the fullname as if it were added at the specified time. Does
+	 * nothing if the fullname is already in the database.
+	 * 
+	 * @param id the fullname
+	 * @param addedAt the time it was added, in milliseconds since the epoch
+	 */
+	protected void addFullname(String id, long addedAt) {
+		if(!fullnames.containsKey(id))
+			fullnames.put(id, addedAt);
+	}
+	
+	/**
+	 * Adds every fullname in this database, along with the time it
+	 * was added, to the specified collection in the order they were
+	 * added.
+	 *
+	 * @param result the collection to add to
+	 */
+	protected void copyEntries(Collection<Entry<String, Long>> result) {
+		result.addAll(fullnames.entrySet());
+	}
+	
+	/**
+	 * Formats one line of the saved file
+	 * 
+	 * @param id the fullname
+	 * @param addedAt when the fullname was added
+	 * @return the line, without a newline
+	 */
+	protected String formatLine(String id, long addedAt) {
+		if(getRetention() <= 0)
+			return id;
+		return id + " " + addedAt;
+	}
+	
+	/**
+	 * Adds the fullname on one line of a saved file, unless it
+	 * has already expired
+	 * 
+	 * @param ln the line, without a newline
+	 */
+	protected void parseLine(String ln) {
+		int space = ln.indexOf(' ');
+		if(space < 0) {
+			addFullname(ln);
+			return;
+		}
+		
+		loadFullname(ln.substring(0, space), Long.parseLong(ln.substring(space + 1)));
+	}
+	
+	/**
+	 * Adds a fullname read from a saved file, unless it has already
+	 * expired
+	 * 
+	 * @param id the fullname
+	 * @param addedAt when the fullname was added, or -1 if the file did not say
+	 */
+	protected void loadFullname(String id, long addedAt) {
+		if(addedAt < 0) {
+			addFullname(id);
+			return;
+		}
+		
+		if(getRetention() > 0 && addedAt < System.currentTimeMillis() - getRetention())
+			return;
+		addFullname(id, addedAt);
 	}
 
 	/**
@@ -45,8 +271,8 @@ public class FlatFileDatabase extends Database {
 	 */
 	public void save(File file) {
 		try(BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
-			for(String str : fullnames) {
-				bw.append(str).append("\n");
+			for(Entry<String, Long> entry : fullnames.entrySet()) {
+				bw.append(formatLine(entry.getKey(), entry.getValue())).append("\n");
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -54,18 +280,95 @@ public class FlatFileDatabase extends Database {
 	}
 	
 	/**
-	 * Loads the database from thet specified file
+	 * Saves the database to the specified file as a {@link FullnameSnapshot}.
+	 * The time each fullname was added is only saved if a retention is set.
+	 * 
+	 * @param file the file to save to
+	 * @param compress if the snapshot should be compressed
+	 */
+	public void saveSnapshot(File file, boolean compress) {
+		boolean timestamps = getRetention() > 0;
+		List<Entry<String, Long>> entries = new ArrayList<>();
+		copyEntries(entries);
+		
+		long[] packed = new long[entries.size()];
+		long[] packedAddedAt = timestamps ? new long[entries.size()] : null;
+		int numPacked = 0;
+		List<String> unpacked = new ArrayList<>();
+		List<Long> unpackedAddedAt = new ArrayList<>();
+		
+		for(Entry<String, Long> entry : entries) {
+			long encoded = FullnameCodec.encode(entry.getKey());
+			if(encoded == FullnameCodec.NOT_PACKABLE) {
+				unpacked.add(entry.getKey());
+				unpackedAddedAt.add(entry.getValue());
+				continue;
+			}
+			
+			if(timestamps)
+				packedAddedAt[numPacked] = entry.getValue();
+			packed[numPacked++] = encoded;
+		}
+		
+		long[] unpackedTimes = new long[unpackedAddedAt.size()];
+		for(int i = 0; i < unpackedTimes.length; i++) {
+			unpackedTimes[i] = unpackedAddedAt.get(i);
+		}
+		
+		try {
+			FullnameSnapshot.write(file, Arrays.copyOf(packed, numPacked), 
+					timestamps ? Arrays.copyOf(packedAddedAt, numPacked) : null,
+					unpacked, unpackedTimes, compress);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Loads the database from thet specified file, which may be either
+	 * a text file or a {@link FullnameSnapshot}
 	 * @param file the file to load from
 	 */
 	public void load(File file) {
+		if(FullnameSnapshot.isSnapshot(file)) {
+			loadSnapshot(file);
+			return;
+		}
+		
 		try(BufferedReader br = new BufferedReader(new FileReader(file))) {
 			String ln;
 			
 			while((ln = br.readLine()) != null) {
-				addFullname(ln);
+				parseLine(ln);
 			}
 		}catch(IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
+	
+	/**
+	 * Loads the database from the specified {@link FullnameSnapshot}
+	 * @param file the file to load from
+	 */
+	private void loadSnapshot(File file) {
+		try {
+			FullnameSnapshot.read(file, new FullnameSnapshot.Sink() {
+				@Override
+				public void begin(int packedCount, int unpackedCount) {
+				}
+				
+				@Override
+				public void packed(long packed, long addedAt) {
+					loadFullname(FullnameCodec.decode(packed), addedAt);
+				}
+				
+				@Override
+				public void unpacked(String id, long addedAt) {
+					loadFullname(id, addedAt);
+				}
+			});
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
 }
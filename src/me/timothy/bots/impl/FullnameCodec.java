@@ -0,0 +1,109 @@
+package me.timothy.bots.impl;
+
+/**
+ * Packs reddit fullnames into a single long and back. A fullname
+ * such as {@code t1_abc123} is a kind ({@code t1} through {@code t9})
+ * followed by a lower-case base36 id. The kind is kept in the top 4
+ * bits and the id in the remaining 60, which fits any id of up to 11
+ * base36 digits.
+ * <br><br>
+ * Only fullnames that decode back to exactly the same string are
+ * packed; anything else (upper case, leading zeros, unknown kinds, 
+ * overly long ids) is reported as not packable so callers can fall
+ * back to storing the string itself. A packed fullname is never 0.
+ * 
+ * @author Timothy
+ */
+public class FullnameCodec {
+	/** Returned by {@link #encode(String)} when the fullname can't be packed */
+	public static final long NOT_PACKABLE = 0;
+	
+	/** The number of bits the kind is shifted by */
+	private static final int KIND_SHIFT = 60;
+	
+	/** Masks the id out of a packed fullname */
+	private static final long ID_MASK = (1L << KIND_SHIFT) - 1;
+	
+	/** The longest id, in base36 digits, that always fits in 60 bits */
+	private static final int MAX_ID_DIGITS = 11;
+	
+	/**
+	 * Packs the fullname into a long.
+	 * 
+	 * @param fullname the fullname, i.e. t1_abc123
+	 * @return the packed fullname, or {@link #NOT_PACKABLE}
+	 */
+	public static long encode(String fullname) {
+		int length = fullname.length();
+		if(length < 4 || length > 3 + MAX_ID_DIGITS)
+			return NOT_PACKABLE;
+		if(fullname.charAt(0) != 't' || fullname.charAt(2) != '_')
+			return NOT_PACKABLE;
+		
+		int kind = fullname.charAt(1) - '0';
+		if(kind < 1 || kind > 9)
+			return NOT_PACKABLE;
+		
+		long id = parseId(fullname, 3);
+		if(id < 0)
+			return NOT_PACKABLE;
+		return ((long) kind << KIND_SHIFT) | id;
+	}
+	
+	/**
+	 * Unpacks a fullname packed by {@link #encode(String)}
+	 * 
+	 * @param packed the packed fullname
+	 * @return the fullname
+	 */
+	public static String decode(long packed) {
+		return "t" + kind(packed) + "_" + Long.toString(id(packed), 36);
+	}
+	
+	/**
+	 * Gets the kind of a packed fullname, i.e. 1 for comments
+	 * 
+	 * @param packed the packed fullname
+	 * @return the kind, 1 through 9
+	 */
+	public static int kind(long packed) {
+		return (int) (packed >>> KIND_SHIFT);
+	}
+	
+	/**
+	 * Gets the numeric id of a packed fullname
+	 * 
+	 * @param packed the packed fullname
+	 * @return the id
+	 */
+	public static long id(long packed) {
+		return packed & ID_MASK;
+	}
+	
+	/**
+	 * Parses the canonical lower-case base36 id starting at the specified
+	 * index.
+	 * 
+	 * @param str the string to parse
+	 * @param start the index of the first digit
+	 * @return the id, or -1 if it is not canonical
+	 */
+	private static long parseId(String str, int start) {
+		if(str.charAt(start) == '0' && str.length() > start + 1)
+			return -1; // leading zeros would not survive a round trip
+		
+		long id = 0;
+		for(int i = start; i < str.length(); i++) {
+			char c = str.charAt(i);
+			int digit;
+			if(c >= '0' && c <= '9')
+				digit = c - '0';
+			else if(c >= 'a' && c <= 'z')
+				digit = c - 'a' + 10;
+			else
+				return -1;
+			id = id * 36 + digit;
+		}
+		return id;
+	}
+}
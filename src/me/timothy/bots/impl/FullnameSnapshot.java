@@ -0,0 +1,279 @@
+package me.timothy.bots.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes the binary snapshot format for fullname databases.
+ * Loading a text file means one {@code readLine} and one string per
+ * fullname; a snapshot is read with a single bulk {@link FileChannel}
+ * read and fullnames that {@link FullnameCodec} can pack are stored as
+ * plain longs, so a database of packed fullnames never creates a string
+ * at all.
+ * <br><br>
+ * The file is a header followed by the body, which may be deflated.
+ * The header holds the magic, the version, the flags, the length of the
+ * body before and after compression and the CRC32 of the uncompressed
+ * body. The body holds the number of packed fullnames, the packed
+ * fullnames, the number of other fullnames and each one as a length
+ * prefixed UTF-8 string. If the timestamps flag is set, the time each
+ * fullname was added follows every group of fullnames.
+ *
+ * @author Timothy
+ */
+public class FullnameSnapshot {
+	/** Identifies a snapshot file: SBFS */
+	private static final int MAGIC = 0x53424653;
+
+	/** The current version of the format */
+	private static final int VERSION = 1;
+
+	/** Set if the body is deflated */
+	private static final int FLAG_COMPRESSED = 1;
+
+	/** Set if the time each fullname was added is stored */
+	private static final int FLAG_TIMESTAMPS = 2;
+
+	/** The size of the header, in bytes */
+	private static final int HEADER_BYTES = 24;
+
+	/**
+	 * Receives the fullnames in a snapshot as it is read
+	 *
+	 * @author Timothy
+	 */
+	public interface Sink {
+		/**
+		 * Called once before any fullnames, so the receiver can size itself
+		 *
+		 * @param packedCount the number of packed fullnames
+		 * @param unpackedCount the number of other fullnames
+		 */
+		void begin(int packedCount, int unpackedCount);
+
+		/**
+		 * Called for each packed fullname
+		 *
+		 * @param packed the fullname, packed by {@link FullnameCodec}
+		 * @param addedAt when it was added, or -1 if the snapshot has no timestamps
+		 */
+		void packed(long packed, long addedAt);
+
+		/**
+		 * Called for each fullname that could not be packed
+		 *
+		 * @param id the fullname
+		 * @param addedAt when it was added, or -1 if the snapshot has no timestamps
+		 */
+		void unpacked(String id, long addedAt);
+	}
+
+	/**
+	 * Checks if the file is a snapshot rather than a text file
+	 *
+	 * @param file the file to check
+	 * @return true if the file starts with the snapshot magic
+	 */
+	public static boolean isSnapshot(File file) {
+		if(file.length() < HEADER_BYTES)
+			return false;
+
+		try(FileChannel channel = new FileInputStream(file).getChannel()) {
+			ByteBuffer magic = ByteBuffer.allocate(4);
+			while(magic.hasRemaining() && channel.read(magic) >= 0);
+			return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Writes a snapshot, replacing the file atomically once it is
+	 * complete.
+	 *
+	 * @param file the file to write
+	 * @param packed the packed fullnames
+	 * @param packedAddedAt when each packed fullname was added, or null to not store timestamps
+	 * @param unpacked the fullnames that could not be packed
+	 * @param unpackedAddedAt when each other fullname was added; ignored if packedAddedAt is null
+	 * @param compress if the body should be deflated
+	 * @throws IOException if an i/o exception occurs
+	 */
+	public static void write(File file, long[] packed, long[] packedAddedAt,
+			List<String> unpacked, long[] unpackedAddedAt, boolean compress) throws IOException {
+		boolean timestamps = packedAddedAt != null;
+
+		byte[][] encoded = new byte[unpacked.size()][];
+		long bodyLength = 8 + 8L * packed.length * (timestamps ? 2 : 1);
+		for(int i = 0; i < encoded.length; i++) {
+			encoded[i] = unpacked.get(i).getBytes(StandardCharsets.UTF_8);
+			if(encoded[i].length > Short.MAX_VALUE)
+				throw new IllegalArgumentException("Fullname too long: " + unpacked.get(i));
+			bodyLength += 2 + encoded[i].length + (timestamps ? 8 : 0);
+		}
+		if(bodyLength > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many fullnames for one snapshot");
+
+		ByteBuffer body = ByteBuffer.allocate((int) bodyLength);
+		body.putInt(packed.length);
+		for(long value : packed) {
+			body.putLong(value);
+		}
+		if(timestamps) {
+			for(long addedAt : packedAddedAt) {
+				body.putLong(addedAt);
+			}
+		}
+		body.putInt(encoded.length);
+		for(int i = 0; i < encoded.length; i++) {
+			body.putShort((short) encoded[i].length);
+			body.put(encoded[i]);
+		}
+		if(timestamps) {
+			for(int i = 0; i < encoded.length; i++) {
+				body.putLong(unpackedAddedAt[i]);
+			}
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(body.array(), 0, body.position());
+
+		byte[] stored = body.array();
+		int storedLength = body.position();
+		if(compress) {
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			deflater.setInput(stored, 0, storedLength);
+			deflater.finish();
+			byte[] out = new byte[Math.max(64, storedLength / 2)];
+			int outLength = 0;
+			while(!deflater.finished()) {
+				if(outLength == out.length) {
+					byte[] grown = new byte[out.length * 2];
+					System.arraycopy(out, 0, grown, 0, outLength);
+					out = grown;
+				}
+				outLength += deflater.deflate(out, outLength, out.length - outLength);
+			}
+			deflater.end();
+			stored = out;
+			storedLength = outLength;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt((compress ? FLAG_COMPRESSED : 0) | (timestamps ? FLAG_TIMESTAMPS : 0));
+		header.putInt(body.position());
+		header.putInt(storedLength);
+		header.putInt((int) crc.getValue());
+		header.flip();
+
+		File tmp = new File(file.getPath() + ".tmp");
+		try(FileOutputStream fos = new FileOutputStream(tmp)) {
+			FileChannel channel = fos.getChannel();
+			ByteBuffer storedBuffer = ByteBuffer.wrap(stored, 0, storedLength);
+			while(header.hasRemaining() || storedBuffer.hasRemaining()) {
+				channel.write(new ByteBuffer[] { header, storedBuffer });
+			}
+			channel.force(false);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a snapshot with one bulk read, verifies its checksum and
+	 * passes every fullname to the sink.
+	 *
+	 * @param file the snapshot to read
+	 * @param sink receives the fullnames
+	 * @throws IOException if an i/o exception occurs, or the file is not a valid snapshot
+	 */
+	public static void read(File file, Sink sink) throws IOException {
+		ByteBuffer buffer;
+		try(FileChannel channel = new FileInputStream(file).getChannel()) {
+			if(channel.size() > Integer.MAX_VALUE)
+				throw new IOException(file + " is too large to be a snapshot");
+			buffer = ByteBuffer.allocate((int) channel.size());
+			while(buffer.hasRemaining()) {
+				if(channel.read(buffer) < 0)
+					throw new IOException(file + " ended unexpectedly");
+			}
+			buffer.flip();
+		}
+
+		if(buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC)
+			throw new IOException(file + " is not a snapshot");
+		int version = buffer.getInt();
+		if(version != VERSION)
+			throw new IOException(file + " has unsupported snapshot version " + version);
+		int flags = buffer.getInt();
+		int bodyLength = buffer.getInt();
+		int storedLength = buffer.getInt();
+		int expectedCrc = buffer.getInt();
+		if(buffer.remaining() != storedLength)
+			throw new IOException(file + " is truncated");
+
+		ByteBuffer body;
+		if((flags & FLAG_COMPRESSED) != 0) {
+			byte[] inflated = new byte[bodyLength];
+			Inflater inflater = new Inflater();
+			inflater.setInput(buffer.array(), buffer.position(), storedLength);
+			try {
+				int n = 0;
+				while(n < bodyLength && !inflater.finished()) {
+					int read = inflater.inflate(inflated, n, bodyLength - n);
+					if(read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+						throw new IOException(file + " is corrupt");
+					n += read;
+				}
+			} catch (DataFormatException e) {
+				throw new IOException(file + " is corrupt", e);
+			} finally {
+				inflater.end();
+			}
+			body = ByteBuffer.wrap(inflated);
+		}else {
+			body = buffer.slice();
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(body.array(), body.arrayOffset(), bodyLength);
+		if((int) crc.getValue() != expectedCrc)
+			throw new IOException(file + " failed its checksum");
+
+		boolean timestamps = (flags & FLAG_TIMESTAMPS) != 0;
+		int packedCount = body.getInt();
+		int packedStart = body.position();
+		int afterPacked = packedStart + 8 * packedCount * (timestamps ? 2 : 1);
+		int unpackedCount = body.getInt(afterPacked);
+		sink.begin(packedCount, unpackedCount);
+
+		for(int i = 0; i < packedCount; i++) {
+			long addedAt = timestamps ? body.getLong(packedStart + 8 * (packedCount + i)) : -1;
+			sink.packed(body.getLong(packedStart + 8 * i), addedAt);
+		}
+
+		body.position(afterPacked + 4);
+		String[] unpacked = new String[unpackedCount];
+		for(int i = 0; i < unpackedCount; i++) {
+			int length = body.getShort();
+			unpacked[i] = new String(body.array(), body.arrayOffset() + body.position(), length, StandardCharsets.UTF_8);
+			body.position(body.position() + length);
+		}
+		for(int i = 0; i < unpackedCount; i++) {
+			sink.unpacked(unpacked[i], timestamps ? body.getLong() : -1);
+		}
+	}
+}
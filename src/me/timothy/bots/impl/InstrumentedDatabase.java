@@ -0,0 +1,432 @@
+package me.timothy.bots.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import me.timothy.bots.Database;
+import me.timothy.bots.SummonState;
+import me.timothy.utils.LatencyHistogram;
+
+/**
+ * Wraps another database and measures it: how many fullnames are looked
+ * up and how many of those were already seen, how fast fullnames are
+ * added, how large the database is, and how long lookups, flushes,
+ * saves and loads take. {@link #register(String)} exposes the numbers
+ * through JMX, i.e. in jconsole under {@code me.timothy.bots}.
+ * <br><br>
+ * Saving and loading are not part of {@link Database}, so they are
+ * only timed when run through {@link #timeSave(Runnable)} and
+ * {@link #timeLoad(Runnable)}, i.e.
+ * <pre>
+ * metrics.timeSave(new Runnable() {
+ *     public void run() {
+ *         database.save(file);
+ *     }
+ * });
+ * </pre>
+ *
+ * @author Timothy
+ */
+public class InstrumentedDatabase extends Database implements InstrumentedDatabaseMBean {
+	/** The database being measured */
+	private Database backing;
+
+	/** Fullnames looked up */
+	private AtomicLong lookups;
+
+	/** Fullnames looked up that were in the database */
+	private AtomicLong hits;
+
+	/** Fullnames added */
+	private AtomicLong adds;
+
+	/** When the counters were last reset, in milliseconds since the epoch */
+	private volatile long since;
+
+	/** Durations of calls that look up fullnames */
+	private LatencyHistogram lookupLatency;
+
+	/** Durations of flushes */
+	private LatencyHistogram flushLatency;
+
+	/** Durations of saves */
+	private LatencyHistogram saveLatency;
+
+	/** Durations of loads */
+	private LatencyHistogram loadLatency;
+
+	/** The name this is registered under, or null */
+	private ObjectName objectName;
+
+	/**
+	 * Measures the specified database
+	 *
+	 * @param backing the database to measure
+	 */
+	public InstrumentedDatabase(Database backing) {
+		this.backing = backing;
+		lookups = new AtomicLong();
+		hits = new AtomicLong();
+		adds = new AtomicLong();
+		lookupLatency = new LatencyHistogram();
+		flushLatency = new LatencyHistogram();
+		saveLatency = new LatencyHistogram();
+		loadLatency = new LatencyHistogram();
+		since = System.currentTimeMillis();
+	}
+
+	@Override
+	public void addFullname(String id) {
+		backing.addFullname(id);
+		adds.incrementAndGet();
+	}
+
+	@Override
+	public boolean containsFullname(String id) {
+		long start = System.nanoTime();
+		boolean result = backing.containsFullname(id);
+		lookupLatency.record(System.nanoTime() - start);
+
+		lookups.incrementAndGet();
+		if(result)
+			hits.incrementAndGet();
+		return result;
+	}
+
+	@Override
+	public boolean addIfAbsent(String id) {
+		long start = System.nanoTime();
+		boolean added = backing.addIfAbsent(id);
+		lookupLatency.record(System.nanoTime() - start);
+
+		lookups.incrementAndGet();
+		if(added)
+			adds.incrementAndGet();
+		else
+			hits.incrementAndGet();
+		return added;
+	}
+
+	@Override
+	public List<String> addAllIfAbsent(List<String> ids) {
+		long start = System.nanoTime();
+		List<String> added = backing.addAllIfAbsent(ids);
+		lookupLatency.record(System.nanoTime() - start);
+
+		lookups.addAndGet(ids.size());
+		hits.addAndGet(ids.size() - added.size());
+		adds.addAndGet(added.size());
+		return added;
+	}
+
+	/**
+	 * Checks the fullnames with the backing database's filterUnseen, so
+	 * that the fullnames that were in the database count as hits even
+	 * when some of the others were not.
+	 */
+	@Override
+	public boolean containsAll(Collection<String> ids) {
+		long start = System.nanoTime();
+		List<String> unseen = backing.filterUnseen(new ArrayList<>(ids));
+		lookupLatency.record(System.nanoTime() - start);
+
+		lookups.addAndGet(ids.size());
+		hits.addAndGet(ids.size() - unseen.size());
+		return unseen.isEmpty();
+	}
+
+	@Override
+	public List<String> filterUnseen(List<String> ids) {
+		long start = System.nanoTime();
+		List<String> unseen = backing.filterUnseen(ids);
+		lookupLatency.record(System.nanoTime() - start);
+
+		lookups.addAndGet(ids.size());
+		hits.addAndGet(ids.size() - unseen.size());
+		return unseen;
+	}
+
+	@Override
+	public void addAll(Collection<String> ids) {
+		backing.addAll(ids);
+		adds.addAndGet(ids.size());
+	}
+
+	@Override
+	public Iterable<String> getFullnames() {
+		return backing.getFullnames();
+	}
+
+	@Override
+	public int size() {
+		return backing.size();
+	}
+
+	@Override
+	public long estimatedBytes() {
+		return backing.estimatedBytes();
+	}
+
+	@Override
+	public SummonState getState(String namespace) {
+		return backing.getState(namespace);
+	}
+
+	@Override
+	public void flushState() {
+		backing.flushState();
+	}
+
+	@Override
+	public long getRetention() {
+		return backing.getRetention();
+	}
+
+	@Override
+	public void setRetention(long retentionMs) {
+		backing.setRetention(retentionMs);
+	}
+
+	@Override
+	public void evictExpired() {
+		backing.evictExpired();
+	}
+
+	@Override
+	public void flush() {
+		long start = System.nanoTime();
+		backing.flush();
+		flushLatency.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Runs the save and records how long it took
+	 *
+	 * @param save saves the backing database
+	 */
+	public void timeSave(Runnable save) {
+		long start = System.nanoTime();
+		save.run();
+		saveLatency.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Runs the load and records how long it took
+	 *
+	 * @param load loads the backing database
+	 */
+	public void timeLoad(Runnable load) {
+		long start = System.nanoTime();
+		load.run();
+		loadLatency.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Registers this with the platform MBean server as
+	 * {@code me.timothy.bots:type=Database,name=<name>}
+	 *
+	 * @param name the name to register under, i.e. the bot's username
+	 */
+	public void register(String name) {
+		try {
+			ObjectName objectName = new ObjectName("me.timothy.bots:type=Database,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			this.objectName = objectName;
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Removes this from the platform MBean server, if it is registered
+	 */
+	public void unregister() {
+		if(objectName == null)
+			return;
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+			objectName = null;
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Gets the database being measured
+	 *
+	 * @return the backing database
+	 */
+	public Database getBacking() {
+		return backing;
+	}
+
+	/**
+	 * Gets the durations of calls that looked up fullnames
+	 *
+	 * @return the lookup histogram
+	 */
+	public LatencyHistogram getLookupLatency() {
+		return lookupLatency;
+	}
+
+	/**
+	 * Gets the durations of flushes
+	 *
+	 * @return the flush histogram
+	 */
+	public LatencyHistogram getFlushLatency() {
+		return flushLatency;
+	}
+
+	/**
+	 * Gets the durations of saves
+	 *
+	 * @return the save histogram
+	 */
+	public LatencyHistogram getSaveLatency() {
+		return saveLatency;
+	}
+
+	/**
+	 * Gets the durations of loads
+	 *
+	 * @return the load histogram
+	 */
+	public LatencyHistogram getLoadLatency() {
+		return loadLatency;
+	}
+
+	@Override
+	public long getLookups() {
+		return lookups.get();
+	}
+
+	@Override
+	public long getHits() {
+		return hits.get();
+	}
+
+	@Override
+	public double getHitRatio() {
+		long n = lookups.get();
+		return n == 0 ? 0 : hits.get() / (double) n;
+	}
+
+	@Override
+	public long getAdds() {
+		return adds.get();
+	}
+
+	@Override
+	public double getAddsPerSecond() {
+		long elapsed = System.currentTimeMillis() - since;
+		return elapsed <= 0 ? 0 : adds.get() * 1000.0 / elapsed;
+	}
+
+	@Override
+	public int getSize() {
+		return backing.size();
+	}
+
+	@Override
+	public long getEstimatedBytes() {
+		return backing.estimatedBytes();
+	}
+
+	@Override
+	public long getLookupCalls() {
+		return lookupLatency.getCount();
+	}
+
+	@Override
+	public double getLookupMeanMicros() {
+		return lookupLatency.getMeanNanos() / 1000.0;
+	}
+
+	@Override
+	public double getLookupP99Micros() {
+		return lookupLatency.getPercentileNanos(0.99) / 1000.0;
+	}
+
+	@Override
+	public double getLookupTotalMicros() {
+		return lookupLatency.getTotalNanos() / 1000.0;
+	}
+
+	@Override
+	public long getFlushCount() {
+		return flushLatency.getCount();
+	}
+
+	@Override
+	public double getFlushMeanMicros() {
+		return flushLatency.getMeanNanos() / 1000.0;
+	}
+
+	@Override
+	public double getFlushP99Micros() {
+		return flushLatency.getPercentileNanos(0.99) / 1000.0;
+	}
+
+	@Override
+	public double getFlushMaxMicros() {
+		return flushLatency.getMaxNanos() / 1000.0;
+	}
+
+	@Override
+	public long getSaveCount() {
+		return saveLatency.getCount();
+	}
+
+	@Override
+	public double getSaveMeanMicros() {
+		return saveLatency.getMeanNanos() / 1000.0;
+	}
+
+	@Override
+	public double getSaveP99Micros() {
+		return saveLatency.getPercentileNanos(0.99) / 1000.0;
+	}
+
+	@Override
+	public double getSaveMaxMicros() {
+		return saveLatency.getMaxNanos() / 1000.0;
+	}
+
+	@Override
+	public long getLoadCount() {
+		return loadLatency.getCount();
+	}
+
+	@Override
+	public double getLoadMeanMicros() {
+		return loadLatency.getMeanNanos() / 1000.0;
+	}
+
+	@Override
+	public double getLoadMaxMicros() {
+		return loadLatency.getMaxNanos() / 1000.0;
+	}
+
+	@Override
+	public void resetCounters() {
+		lookups.set(0);
+		hits.set(0);
+		adds.set(0);
+		lookupLatency.reset();
+		flushLatency.reset();
+		saveLatency.reset();
+		loadLatency.reset();
+		since = System.currentTimeMillis();
+	}
+}
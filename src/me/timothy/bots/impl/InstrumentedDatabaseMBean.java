@@ -0,0 +1,124 @@
+package me.timothy.bots.impl;
+
+/**
+ * The attributes of an {@link InstrumentedDatabase} exposed through JMX.
+ * Durations are in microseconds.
+ *
+ * @author Timothy
+ */
+public interface InstrumentedDatabaseMBean {
+	/**
+	 * @return the number of fullnames looked up
+	 */
+	long getLookups();
+
+	/**
+	 * @return the number of fullnames looked up that were in the database
+	 */
+	long getHits();
+
+	/**
+	 * @return hits over lookups, or 0 if there were no lookups
+	 */
+	double getHitRatio();
+
+	/**
+	 * @return the number of fullnames added
+	 */
+	long getAdds();
+
+	/**
+	 * @return fullnames added per second since the counters were reset
+	 */
+	double getAddsPerSecond();
+
+	/**
+	 * @return the number of fullnames in the database, or -1 if unknown
+	 */
+	int getSize();
+
+	/**
+	 * @return the approximate memory used by the database in bytes, or -1 if unknown
+	 */
+	long getEstimatedBytes();
+
+	/**
+	 * @return the number of lookup calls timed; a listing checked at once counts as one
+	 */
+	long getLookupCalls();
+
+	/**
+	 * @return the mean duration of a lookup call
+	 */
+	double getLookupMeanMicros();
+
+	/**
+	 * @return the 99th percentile duration of a lookup call
+	 */
+	double getLookupP99Micros();
+
+	/**
+	 * @return the total time spent in lookup calls
+	 */
+	double getLookupTotalMicros();
+
+	/**
+	 * @return the number of flushes
+	 */
+	long getFlushCount();
+
+	/**
+	 * @return the mean duration of a flush
+	 */
+	double getFlushMeanMicros();
+
+	/**
+	 * @return the 99th percentile duration of a flush
+	 */
+	double getFlushP99Micros();
+
+	/**
+	 * @return the longest flush
+	 */
+	double getFlushMaxMicros();
+
+	/**
+	 * @return the number of saves
+	 */
+	long getSaveCount();
+
+	/**
+	 * @return the mean duration of a save
+	 */
+	double getSaveMeanMicros();
+
+	/**
+	 * @return the 99th percentile duration of a save
+	 */
+	double getSaveP99Micros();
+
+	/**
+	 * @return the longest save
+	 */
+	double getSaveMaxMicros();
+
+	/**
+	 * @return the number of loads
+	 */
+	long getLoadCount();
+
+	/**
+	 * @return the mean duration of a load
+	 */
+	double getLoadMeanMicros();
+
+	/**
+	 * @return the longest load
+	 */
+	double getLoadMaxMicros();
+
+	/**
+	 * Resets every counter and histogram to 0
+	 */
+	void resetCounters();
+}
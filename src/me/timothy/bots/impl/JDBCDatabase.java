@@ -0,0 +1,370 @@
+package me.timothy.bots.impl;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import me.timothy.bots.Database;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A database kept in an embedded SQL store such as H2 or SQLite,
+ * accessed through JDBC. Fullnames are the primary key of a single
+ * table, so lookups use its index, and every statement is prepared
+ * once and reused for the life of the connection.
+ * <br><br>
+ * New fullnames are held in memory until {@link #flush()}, which the
+ * driver calls once per loop, and are then inserted as one batch in
+ * one transaction. Each is stored with the time it was added, not the
+ * time it was flushed. Whole listings are checked with a single query
+ * through {@link #filterUnseen(List)}.
+ * <br><br>
+ * Summon state is kept in a second table, one row per namespace and
+ * key, and only the keys that changed are written. Values are stored
+ * as a CLOB, so their length is not limited.
+ * <br><br>
+ * The JDBC driver for the chosen store must be on the classpath, i.e.
+ * {@code jdbc:h2:./fullnames} or {@code jdbc:sqlite:fullnames.db}.
+ *
+ * @author Timothy
+ */
+public class JDBCDatabase extends Database implements AutoCloseable {
+	/** The most fullnames checked by a single query */
+	private static final int MAX_QUERY_PARAMS = 100;
+
+	/** The logger */
+	private Logger logger;
+
+	/** The connection to the store */
+	private Connection connection;
+
+	/** Prepared statements, by their sql */
+	private Map<String, PreparedStatement> statements;
+
+	/** Fullnames added since the last flush, mapped to when they were added */
+	private Map<String, Long> pending;
+
+	/**
+	 * Connects to the store at the specified JDBC url and creates the
+	 * fullnames table if it does not exist.
+	 *
+	 * @param url the jdbc url, i.e. jdbc:h2:./fullnames
+	 */
+	public JDBCDatabase(String url) {
+		try {
+			connection = DriverManager.getConnection(url);
+			connection.setAutoCommit(false);
+
+			try(Statement statement = connection.createStatement()) {
+				statement.execute("CREATE TABLE IF NOT EXISTS fullnames (" +
+						"fullname VARCHAR(32) NOT NULL PRIMARY KEY, " +
+						"added_at BIGINT NOT NULL)");
+				statement.execute("CREATE TABLE IF NOT EXISTS summon_state (" +
+						"namespace VARCHAR(64) NOT NULL, " +
+						"state_key VARCHAR(255) NOT NULL, " +
+						"state_value CLOB NOT NULL, " +
+						"PRIMARY KEY (namespace, state_key))");
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+
+		statements = new HashMap<>();
+		pending = new LinkedHashMap<>();
+
+		logger = LogManager.getLogger();
+	}
+
+	@Override
+	public void addFullname(String id) {
+		if(!pending.containsKey(id))
+			pending.put(id, System.currentTimeMillis());
+	}
+
+	@Override
+	public boolean containsFullname(String id) {
+		if(pending.containsKey(id))
+			return true;
+
+		try {
+			PreparedStatement statement = prepare("SELECT 1 FROM fullnames WHERE fullname = ?");
+			statement.setString(1, id);
+			try(ResultSet results = statement.executeQuery()) {
+				return results.next();
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Checks the fullnames with one query per hundred fullnames
+	 */
+	@Override
+	public List<String> filterUnseen(List<String> ids) {
+		Set<String> seen = selectExisting(ids);
+
+		List<String> result = new ArrayList<>();
+		for(String id : ids) {
+			if(!seen.contains(id) && !pending.containsKey(id))
+				result.add(id);
+		}
+		return result;
+	}
+
+	/**
+	 * Checks the fullnames with one query per hundred fullnames, and
+	 * adds the ones that are not stored to the next batch
+	 */
+	@Override
+	public List<String> addAllIfAbsent(List<String> ids) {
+		List<String> result = filterUnseen(ids);
+		long now = System.currentTimeMillis();
+		for(String id : result) {
+			pending.put(id, now);
+		}
+		return result;
+	}
+
+	/**
+	 * Inserts every fullname added since the last flush as a single
+	 * batch in a single transaction. Fullnames that were already stored
+	 * are found with one query per hundred and skipped.
+	 */
+	@Override
+	public void flush() {
+		if(pending.isEmpty())
+			return;
+
+		try {
+			Set<String> existing = selectExisting(new ArrayList<>(pending.keySet()));
+			PreparedStatement statement = prepare("INSERT INTO fullnames (fullname, added_at) VALUES (?, ?)");
+			for(Entry<String, Long> entry : pending.entrySet()) {
+				if(existing.contains(entry.getKey()))
+					continue;
+				statement.setString(1, entry.getKey());
+				statement.setLong(2, entry.getValue());
+				statement.addBatch();
+			}
+			statement.executeBatch();
+			connection.commit();
+			pending.clear();
+		} catch (SQLException e) {
+			rollback();
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Finds which of the fullnames are stored, with one query per
+	 * hundred fullnames. Pending fullnames are not considered.
+	 *
+	 * @param ids the fullnames to look for
+	 * @return the fullnames that are stored
+	 */
+	protected Set<String> selectExisting(List<String> ids) {
+		Set<String> seen = new HashSet<>();
+		try {
+			for(int start = 0; start < ids.size(); start += MAX_QUERY_PARAMS) {
+				List<String> chunk = ids.subList(start, Math.min(ids.size(), start + MAX_QUERY_PARAMS));
+
+				StringBuilder sql = new StringBuilder("SELECT fullname FROM fullnames WHERE fullname IN (");
+				for(int i = 0; i < chunk.size(); i++) {
+					sql.append(i == 0 ? "?" : ",?");
+				}
+				sql.append(")");
+
+				PreparedStatement statement = prepare(sql.toString());
+				for(int i = 0; i < chunk.size(); i++) {
+					statement.setString(i + 1, chunk.get(i));
+				}
+				try(ResultSet results = statement.executeQuery()) {
+					while(results.next()) {
+						seen.add(results.getString(1));
+					}
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+		return seen;
+	}
+
+	@Override
+	public Iterable<String> getFullnames() {
+		flush();
+
+		List<String> result = new ArrayList<>();
+		try {
+			PreparedStatement statement = prepare("SELECT fullname FROM fullnames");
+			try(ResultSet results = statement.executeQuery()) {
+				while(results.next()) {
+					result.add(results.getString(1));
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Deletes every fullname added longer ago than the retention
+	 */
+	@Override
+	public void evictExpired() {
+		if(getRetention() <= 0)
+			return;
+
+		flush();
+		try {
+			PreparedStatement statement = prepare("DELETE FROM fullnames WHERE added_at < ?");
+			statement.setLong(1, System.currentTimeMillis() - getRetention());
+			statement.executeUpdate();
+			connection.commit();
+		} catch (SQLException e) {
+			rollback();
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	protected Map<String, String> readNamespace(String namespace) {
+		Map<String, String> result = new HashMap<>();
+		try {
+			PreparedStatement statement = prepare("SELECT state_key, state_value FROM summon_state WHERE namespace = ?");
+			statement.setString(1, namespace);
+			try(ResultSet results = statement.executeQuery()) {
+				while(results.next()) {
+					result.put(results.getString(1), results.getString(2));
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Deletes the row for every changed key and inserts the rows for the
+	 * ones that still have a value, as two batches in one transaction
+	 */
+	@Override
+	protected void writeNamespace(String namespace, Map<String, String> values, Set<String> changed) {
+		try {
+			PreparedStatement delete = prepare("DELETE FROM summon_state WHERE namespace = ? AND state_key = ?");
+			PreparedStatement insert = prepare("INSERT INTO summon_state (namespace, state_key, state_value) VALUES (?, ?, ?)");
+			for(String key : changed) {
+				delete.setString(1, namespace);
+				delete.setString(2, key);
+				delete.addBatch();
+
+				String value = values.get(key);
+				if(value != null) {
+					insert.setString(1, namespace);
+					insert.setString(2, key);
+					insert.setString(3, value);
+					insert.addBatch();
+				}
+			}
+			delete.executeBatch();
+			insert.executeBatch();
+			connection.commit();
+		} catch (SQLException e) {
+			rollback();
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Gets the number of fullnames in this database. Pending fullnames
+	 * that are already stored, which addFullname does not check for, are
+	 * only counted once.
+	 *
+	 * @return the number of fullnames remembered
+	 */
+	@Override
+	public int size() {
+		try {
+			int unstored = pending.size() - selectExisting(new ArrayList<>(pending.keySet())).size();
+			PreparedStatement statement = prepare("SELECT COUNT(*) FROM fullnames");
+			try(ResultSet results = statement.executeQuery()) {
+				results.next();
+				return results.getInt(1) + unstored;
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Flushes anything pending, including summon state, and closes the
+	 * connection
+	 */
+	@Override
+	public void close() {
+		flush();
+		flushState();
+		try {
+			for(PreparedStatement statement : statements.values()) {
+				statement.close();
+			}
+			statements.clear();
+			connection.close();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Gets the prepared statement for the sql, preparing it the
+	 * first time it is used.
+	 *
+	 * @param sql the sql
+	 * @return the prepared statement
+	 * @throws SQLException if the statement cannot be prepared
+	 */
+	protected PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement statement = statements.get(sql);
+		if(statement == null) {
+			statement = connection.prepareStatement(sql);
+			statements.put(sql, statement);
+		}
+		return statement;
+	}
+
+	/**
+	 * Gets the connection to the store, for subclasses that keep
+	 * more than fullnames in it.
+	 *
+	 * @return the connection
+	 */
+	protected Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Rolls back the current transaction after a failure
+	 */
+	private void rollback() {
+		try {
+			connection.rollback();
+		} catch (SQLException e) {
+			logger.catching(e);
+		}
+	}
+}
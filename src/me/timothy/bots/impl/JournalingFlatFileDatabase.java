@@ -0,0 +1,429 @@
+package me.timothy.bots.impl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A flat file database that never rewrites its history in the
+ * foreground. Every new fullname is appended to the current journal
+ * segment, and {@link #flush()} commits everything appended since the
+ * last flush with a single fsync. Once a segment grows past the
+ * segment size it is closed, and a background job periodically folds
+ * the closed segments into the snapshot, which uses the same format
+ * as {@link FlatFileDatabase#save(File)}.
+ * <br><br>
+ * The folder contains {@code snapshot.txt} and any number of
+ * {@code journal-N.log} segments. {@link #load()} replays the snapshot
+ * followed by every segment in order, ignoring a trailing line that was
+ * only partially written when the process died.
+ *
+ * @author Timothy
+ */
+public class JournalingFlatFileDatabase extends FlatFileDatabase implements AutoCloseable {
+	/** The default size, in bytes, a segment may reach before it is closed */
+	public static final long DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+
+	/** The default time between compactions */
+	public static final long DEFAULT_COMPACT_INTERVAL_MS = 1000 * 60 * 10;
+
+	private static final String SNAPSHOT_NAME = "snapshot.txt";
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	/** The logger */
+	private Logger logger;
+
+	/** The folder containing the snapshot and journal segments */
+	private File folder;
+
+	/** The size a segment may reach before it is closed */
+	private long segmentBytes;
+
+	/** The time between compactions */
+	private long compactIntervalMs;
+
+	/** The sequence number of the segment currently being appended to */
+	private long segmentSeq;
+
+	/** The stream of the current segment, used to fsync */
+	private FileOutputStream segmentStream;
+
+	/** The buffered writer on top of segmentStream */
+	private BufferedWriter segmentWriter;
+
+	/** Bytes written to the current segment, including unflushed bytes */
+	private long segmentLength;
+
+	/** If anything has been appended since the last flush */
+	private boolean dirty;
+
+	/** If fullnames have been evicted since the last compaction */
+	private boolean evictedSinceCompact;
+
+	/** Runs compaction in the background; null until load */
+	private ScheduledExecutorService compactor;
+
+	/** Held for the whole of a compaction, so two never write the snapshot at once */
+	private final Object compactLock = new Object();
+
+	/**
+	 * Creates a journaling database in the specified folder with
+	 * the default segment size and compaction interval. Nothing is
+	 * read until {@link #load()} is called.
+	 *
+	 * @param folder the folder to keep the snapshot and journal in
+	 */
+	public JournalingFlatFileDatabase(File folder) {
+		this(folder, DEFAULT_SEGMENT_BYTES, DEFAULT_COMPACT_INTERVAL_MS);
+	}
+
+	/**
+	 * Creates a journaling database in the specified folder. Nothing is
+	 * read until {@link #load()} is called.
+	 *
+	 * @param folder the folder to keep the snapshot and journal in
+	 * @param segmentBytes the size a segment may reach before it is closed
+	 * @param compactIntervalMs the time between background compactions
+	 */
+	public JournalingFlatFileDatabase(File folder, long segmentBytes, long compactIntervalMs) {
+		this.folder = folder;
+		this.segmentBytes = segmentBytes;
+		this.compactIntervalMs = compactIntervalMs;
+
+		logger = LogManager.getLogger();
+	}
+
+	@Override
+	protected synchronized void addFullname(String id, long addedAt) {
+		if(super.containsFullname(id))
+			return;
+
+		super.addFullname(id, addedAt);
+		if(segmentWriter == null)
+			return; // still replaying
+
+		String line = formatLine(id, addedAt);
+		try {
+			segmentWriter.append(line).append('\n');
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		segmentLength += line.getBytes(StandardCharsets.UTF_8).length + 1;
+		dirty = true;
+	}
+
+	@Override
+	public synchronized boolean containsFullname(String id) {
+		return super.containsFullname(id);
+	}
+
+	@Override
+	public synchronized boolean addIfAbsent(String id) {
+		return super.addIfAbsent(id);
+	}
+
+	@Override
+	public synchronized List<String> addAllIfAbsent(List<String> ids) {
+		return super.addAllIfAbsent(ids);
+	}
+
+	@Override
+	public synchronized Iterable<String> getFullnames() {
+		List<Entry<String, Long>> entries = new ArrayList<>(super.size());
+		copyEntries(entries);
+
+		List<String> result = new ArrayList<>(entries.size());
+		for(Entry<String, Long> entry : entries) {
+			result.add(entry.getKey());
+		}
+		return result;
+	}
+
+	/**
+	 * Evicts expired fullnames from memory. They are dropped from disk
+	 * by the next compaction.
+	 */
+	@Override
+	public synchronized void evictExpired() {
+		int before = super.size();
+		super.evictExpired();
+		if(super.size() != before)
+			evictedSinceCompact = true;
+	}
+
+	@Override
+	public synchronized int size() {
+		return super.size();
+	}
+
+	/**
+	 * Commits everything appended since the last flush with a single
+	 * fsync, then closes the current segment if it has grown past the
+	 * segment size. The cost is proportional to what was added since
+	 * the last flush, not to the size of the database.
+	 */
+	@Override
+	public synchronized void flush() {
+		if(segmentWriter == null || !dirty)
+			return;
+
+		try {
+			segmentWriter.flush();
+			segmentStream.getChannel().force(false);
+			dirty = false;
+
+			if(segmentLength >= segmentBytes) {
+				openSegment(segmentSeq + 1);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Loads the snapshot and replays every journal segment after it,
+	 * then starts appending to a fresh segment and schedules compaction.
+	 */
+	public synchronized void load() {
+		closeSegment();
+
+		if(!folder.exists() && !folder.mkdirs())
+			throw new RuntimeException("Failed to create " + folder);
+
+		File snapshot = new File(folder, SNAPSHOT_NAME);
+		if(snapshot.exists())
+			super.load(snapshot);
+
+		long lastSeq = 0;
+		for(long seq : listSegments()) {
+			replaySegment(segmentFile(seq));
+			lastSeq = seq;
+		}
+
+		try {
+			openSegment(lastSeq + 1);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		if(compactor == null) {
+			compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "FlatFileDatabase compactor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			compactor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						compact();
+					} catch(RuntimeException ex) {
+						logger.catching(ex);
+					}
+				}
+			}, compactIntervalMs, compactIntervalMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Folds every closed journal segment into the snapshot and deletes
+	 * them. This also runs if fullnames have been evicted, so that they
+	 * are dropped from the snapshot. The fullnames are copied while
+	 * holding the lock, but the snapshot itself is written without it
+	 * so adds are not blocked.
+	 * The new snapshot replaces the old one atomically, so a crash leaves
+	 * either the old snapshot and segments or the new snapshot. Safe to
+	 * call while the background job runs; compactions take turns.
+	 */
+	public void compact() {
+		synchronized(compactLock) {
+			compactImpl();
+		}
+	}
+
+	/**
+	 * Does the work of {@link #compact()}. Must be called while holding
+	 * compactLock.
+	 */
+	private void compactImpl() {
+		List<Entry<String, Long>> copy;
+		long closedBefore;
+		synchronized(this) {
+			closedBefore = segmentSeq;
+			boolean shouldCompact = evictedSinceCompact;
+			for(long seq : listSegments()) {
+				if(seq < closedBefore) {
+					shouldCompact = true;
+					break;
+				}
+			}
+			if(!shouldCompact)
+				return;
+
+			copy = new ArrayList<>(super.size());
+			copyEntries(copy);
+			evictedSinceCompact = false;
+		}
+
+		File snapshot = new File(folder, SNAPSHOT_NAME);
+		File tmp = new File(folder, SNAPSHOT_NAME + ".tmp");
+		try(FileOutputStream fos = new FileOutputStream(tmp);
+				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8))) {
+			for(Entry<String, Long> entry : copy) {
+				bw.append(formatLine(entry.getKey(), entry.getValue())).append('\n');
+			}
+			bw.flush();
+			fos.getChannel().force(false);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		try {
+			Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		int deleted = 0;
+		for(long seq : listSegments()) {
+			if(seq < closedBefore && segmentFile(seq).delete())
+				deleted++;
+		}
+		logger.debug("Compacted " + deleted + " journal segments into a snapshot of " + copy.size() + " fullnames");
+	}
+
+	/**
+	 * Flushes anything outstanding, closes the current segment and
+	 * stops background compaction.
+	 */
+	@Override
+	public synchronized void close() {
+		flush();
+		closeSegment();
+
+		if(compactor != null) {
+			compactor.shutdown();
+			compactor = null;
+		}
+	}
+
+	/**
+	 * Reads a journal segment, adding every complete line. A final
+	 * line without a newline was torn by a crash and is ignored.
+	 *
+	 * @param file the segment to replay
+	 */
+	private void replaySegment(File file) {
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		int start = 0;
+		for(int i = 0; i < bytes.length; i++) {
+			if(bytes[i] == '\n') {
+				if(i > start)
+					parseLine(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+				start = i + 1;
+			}
+		}
+
+		if(start < bytes.length)
+			logger.warn("Ignoring " + (bytes.length - start) + " trailing bytes of partially written journal " + file);
+	}
+
+	/**
+	 * Closes the current segment, if any, and starts appending to the
+	 * segment with the specified sequence number.
+	 *
+	 * @param seq the sequence number of the new segment
+	 * @throws IOException if an i/o exception occurs
+	 */
+	private void openSegment(long seq) throws IOException {
+		closeSegment();
+
+		File file = segmentFile(seq);
+		segmentStream = new FileOutputStream(file, true);
+		segmentWriter = new BufferedWriter(new OutputStreamWriter(segmentStream, StandardCharsets.UTF_8));
+		segmentSeq = seq;
+		segmentLength = file.length();
+	}
+
+	/**
+	 * Flushes and closes the current segment, if there is one.
+	 */
+	private void closeSegment() {
+		if(segmentWriter == null)
+			return;
+
+		try {
+			segmentWriter.flush();
+			segmentStream.getChannel().force(false);
+			segmentWriter.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			segmentWriter = null;
+			segmentStream = null;
+			dirty = false;
+		}
+	}
+
+	/**
+	 * Lists the sequence numbers of the journal segments in the folder,
+	 * in ascending order.
+	 *
+	 * @return the sequence numbers of the segments
+	 */
+	private List<Long> listSegments() {
+		List<Long> result = new ArrayList<>();
+		String[] names = folder.list();
+		if(names == null)
+			return result;
+
+		for(String name : names) {
+			if(!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX))
+				continue;
+
+			try {
+				result.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+			}catch(NumberFormatException ex) {
+				logger.warn("Ignoring unexpected file " + name + " in " + folder);
+			}
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Gets the file for the segment with the specified sequence number
+	 *
+	 * @param seq the sequence number
+	 * @return the segment file
+	 */
+	private File segmentFile(long seq) {
+		return new File(folder, SEGMENT_PREFIX + seq + SEGMENT_SUFFIX);
+	}
+}
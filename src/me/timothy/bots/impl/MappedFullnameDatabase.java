@@ -0,0 +1,370 @@
+package me.timothy.bots.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import me.timothy.bots.Database;
+import me.timothy.utils.LongHashSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A database whose fullnames live in a memory-mapped hash file rather
+ * than on the heap. The file is a small header followed by a fixed
+ * number of 8-byte slots, each either empty (0) or a fullname packed by
+ * {@link FullnameCodec}, and is probed linearly exactly like a
+ * {@link LongHashSet}. Opening the database maps the file and does
+ * nothing else, so startup takes the same time no matter how many
+ * fullnames are stored; the operating system pages slots in on demand.
+ * <br><br>
+ * When half the slots are used, the slots are rehashed into a new file
+ * with twice as many, which then atomically replaces the old one.
+ * Fullnames that cannot be packed are appended to a small text file
+ * next to the hash file and kept in memory.
+ *
+ * @author Timothy
+ */
+public class MappedFullnameDatabase extends Database implements AutoCloseable {
+	/** The default number of slots in a new file */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	/** Identifies a mapped fullname file */
+	protected static final long MAGIC = 0x5342464e4d415031L; // SBFNMAP1
+
+	/** The size of the header, in bytes */
+	protected static final int HEADER_BYTES = 64;
+
+	/** The offset of the magic in the header */
+	protected static final int MAGIC_OFFSET = 0;
+
+	/** The offset of the capacity (the number of slots) in the header */
+	protected static final int CAPACITY_OFFSET = 8;
+
+	/** The offset of the number of used slots in the header */
+	protected static final int SIZE_OFFSET = 12;
+
+	/** The largest capacity whose slots still fit in a single mapping */
+	private static final int MAX_CAPACITY = 1 << 27;
+
+	/** The logger */
+	protected Logger logger;
+
+	/** The hash file */
+	protected File file;
+
+	/** The file holding fullnames that could not be packed */
+	protected File stringsFile;
+
+	/** The open hash file */
+	protected FileChannel channel;
+
+	/** The mapping of the entire hash file */
+	protected MappedByteBuffer map;
+
+	/** The number of slots in the hash file */
+	protected int capacity;
+
+	/** Fullnames that could not be packed */
+	protected Set<String> unpacked;
+
+	/**
+	 * Opens or creates the mapped database at the specified file with
+	 * the default capacity.
+	 *
+	 * @param file the hash file
+	 */
+	public MappedFullnameDatabase(File file) {
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Opens or creates the mapped database at the specified file. The
+	 * capacity is only used if the file does not exist yet.
+	 *
+	 * @param file the hash file
+	 * @param initialCapacity the number of slots in a new file, rounded up to a power of 2
+	 */
+	public MappedFullnameDatabase(File file, int initialCapacity) {
+		this.file = file;
+		this.stringsFile = new File(file.getPath() + ".strings");
+		this.unpacked = new HashSet<>();
+
+		logger = LogManager.getLogger();
+
+		int capacity = 16;
+		while(capacity < initialCapacity)
+			capacity <<= 1;
+
+		try {
+			if(!file.exists() || file.length() == 0)
+				createFile(file, capacity);
+			open();
+			loadUnpacked();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void addFullname(String id) {
+		long encoded = FullnameCodec.encode(id);
+		if(encoded == FullnameCodec.NOT_PACKABLE) {
+			addUnpacked(id);
+			return;
+		}
+
+		if(insert(map, capacity, encoded)) {
+			int size = map.getInt(SIZE_OFFSET) + 1;
+			map.putInt(SIZE_OFFSET, size);
+			if(size >= capacity / 2)
+				grow();
+		}
+	}
+
+	@Override
+	public boolean containsFullname(String id) {
+		long encoded = FullnameCodec.encode(id);
+		if(encoded == FullnameCodec.NOT_PACKABLE)
+			return unpacked.contains(id);
+
+		int mask = capacity - 1;
+		int i = LongHashSet.mix(encoded) & mask;
+		long slot;
+		while((slot = map.getLong(slotOffset(i))) != 0) {
+			if(slot == encoded)
+				return true;
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	@Override
+	public Iterable<String> getFullnames() {
+		List<String> result = new ArrayList<>(size());
+		for(int i = 0; i < capacity; i++) {
+			long slot = map.getLong(slotOffset(i));
+			if(slot != 0)
+				result.add(FullnameCodec.decode(slot));
+		}
+		result.addAll(unpacked);
+		return result;
+	}
+
+	/**
+	 * Writes the dirty pages of the mapping back to disk
+	 */
+	@Override
+	public void flush() {
+		map.force();
+	}
+
+	/**
+	 * Gets the number of fullnames in this database
+	 *
+	 * @return the number of fullnames remembered
+	 */
+	@Override
+	public int size() {
+		return map.getInt(SIZE_OFFSET) + unpacked.size();
+	}
+
+	/**
+	 * Counts the whole mapped file, which lives outside the heap, plus
+	 * an estimate for the fullnames that could not be packed
+	 */
+	@Override
+	public long estimatedBytes() {
+		return HEADER_BYTES + 8L * capacity + PackedFullnameDatabase.UNPACKED_BYTES * unpacked.size();
+	}
+
+	/**
+	 * Adds every fullname in a file saved by {@link FlatFileDatabase#save(File)},
+	 * for migrating an existing database. This only needs to be done once.
+	 *
+	 * @param flatFile the file to import
+	 */
+	public void importFlatFile(File flatFile) {
+		try(BufferedReader br = new BufferedReader(new FileReader(flatFile))) {
+			String ln;
+			while((ln = br.readLine()) != null) {
+				if(!ln.isEmpty())
+					addFullname(ln);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Flushes the mapping and closes the hash file. The mapping itself
+	 * is released when it is garbage collected.
+	 */
+	@Override
+	public void close() {
+		flush();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Maps the hash file and verifies its header
+	 *
+	 * @throws IOException if an i/o exception occurs or the file is not a mapped fullname file
+	 */
+	protected void open() throws IOException {
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		map = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+
+		if(map.getLong(MAGIC_OFFSET) != MAGIC)
+			throw new IOException(file + " is not a mapped fullname file");
+		capacity = map.getInt(CAPACITY_OFFSET);
+		if(channel.size() < HEADER_BYTES + 8L * capacity)
+			throw new IOException(file + " is truncated");
+	}
+
+	/**
+	 * Rehashes every slot into a new file with twice the capacity, then
+	 * moves it over the current file and maps it instead.
+	 */
+	protected void grow() {
+		if(capacity >= MAX_CAPACITY)
+			throw new IllegalStateException(file + " is full");
+
+		int newCapacity = capacity << 1;
+		File tmp = new File(file.getPath() + ".grow");
+		try {
+			createFile(tmp, newCapacity);
+			try(FileChannel tmpChannel = new RandomAccessFile(tmp, "rw").getChannel()) {
+				MappedByteBuffer tmpMap = tmpChannel.map(FileChannel.MapMode.READ_WRITE, 0, tmpChannel.size());
+				for(int i = 0; i < capacity; i++) {
+					long slot = map.getLong(slotOffset(i));
+					if(slot != 0)
+						insert(tmpMap, newCapacity, slot);
+				}
+				tmpMap.putInt(SIZE_OFFSET, map.getInt(SIZE_OFFSET));
+				tmpMap.force();
+			}
+
+			retire();
+			channel.close();
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			open();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		logger.debug("Grew " + file + " to " + newCapacity + " slots");
+	}
+
+	/**
+	 * Called by {@link #grow()} once the grown file is complete, just
+	 * before it replaces the current file. Does nothing by default.
+	 */
+	protected void retire() {
+	}
+
+	/**
+	 * Adds a fullname that could not be packed, appending it to the
+	 * strings file.
+	 *
+	 * @param id the fullname
+	 */
+	protected void addUnpacked(String id) {
+		if(!unpacked.add(id))
+			return;
+
+		try(BufferedWriter bw = new BufferedWriter(new FileWriter(stringsFile, true))) {
+			bw.append(id).append("\n");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Reads every fullname in the strings file into memory
+	 *
+	 * @throws IOException if an i/o exception occurs
+	 */
+	protected void loadUnpacked() throws IOException {
+		unpacked.clear();
+		if(!stringsFile.exists())
+			return;
+
+		try(BufferedReader br = new BufferedReader(new FileReader(stringsFile))) {
+			String ln;
+			while((ln = br.readLine()) != null) {
+				if(!ln.isEmpty())
+					unpacked.add(ln);
+			}
+		}
+	}
+
+	/**
+	 * Inserts the packed value into the mapped slots, unless it is
+	 * already there. Does not update the size.
+	 *
+	 * @param map the mapping
+	 * @param capacity the number of slots in the mapping
+	 * @param value the packed fullname
+	 * @return true if the value was inserted, false if it was already present
+	 */
+	protected static boolean insert(MappedByteBuffer map, int capacity, long value) {
+		int mask = capacity - 1;
+		int i = LongHashSet.mix(value) & mask;
+		long slot;
+		while((slot = map.getLong(slotOffset(i))) != 0) {
+			if(slot == value)
+				return false;
+			i = (i + 1) & mask;
+		}
+		map.putLong(slotOffset(i), value);
+		return true;
+	}
+
+	/**
+	 * Gets the byte offset of the specified slot
+	 *
+	 * @param slot the slot index
+	 * @return the offset of the slot in the file
+	 */
+	protected static int slotOffset(int slot) {
+		return HEADER_BYTES + (slot << 3);
+	}
+
+	/**
+	 * Creates an empty hash file with the specified capacity,
+	 * replacing anything at that path.
+	 *
+	 * @param file the file to create
+	 * @param capacity the number of slots
+	 * @throws IOException if an i/o exception occurs
+	 */
+	protected static void createFile(File file, int capacity) throws IOException {
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(0);
+			raf.setLength(HEADER_BYTES + 8L * capacity);
+			raf.seek(MAGIC_OFFSET);
+			raf.writeLong(MAGIC);
+			raf.seek(CAPACITY_OFFSET);
+			raf.writeInt(capacity);
+			raf.writeInt(0);
+			raf.getChannel().force(true);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package me.timothy.bots.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import me.timothy.bots.Database;
+import me.timothy.utils.LongHashSet;
+
+/**
+ * A database that remembers fullnames as packed longs in a 
+ * {@link LongHashSet} rather than as strings. Each fullname costs
+ * 16 to 32 bytes of one flat array instead of a string, its backing
+ * array and a hash entry, and {@code containsFullname} never has to
+ * follow a pointer.
+ * <br><br>
+ * Fullnames that {@link FullnameCodec} cannot pack losslessly are kept
+ * in an ordinary set of strings. Saves and loads the same one fullname
+ * per line format as {@link FlatFileDatabase}, although not in the 
+ * order the fullnames were added. Lines that a {@link FlatFileDatabase}
+ * with a retention saved as {@code id time} load too, but the time is
+ * dropped since this database never forgets. It can also save and load a
+ * {@link FullnameSnapshot}, in which case packed fullnames go straight
+ * from the file into the set without ever becoming strings.
+ * 
+ * @author Timothy
+ */
+public class PackedFullnameDatabase extends Database {
+	/** The approximate heap used by each fullname that could not be packed, in bytes */
+	static final long UNPACKED_BYTES = 90;
+	
+	/** Fullnames that could be packed */
+	private LongHashSet packed;
+	
+	/** Fullnames that could not be packed */
+	private Set<String> unpacked;
+	
+	/**
+	 * Creates an empty packed database
+	 */
+	public PackedFullnameDatabase() {
+		packed = new LongHashSet();
+		unpacked = new HashSet<>();
+	}
+	
+	@Override
+	public void addFullname(String id) {
+		long encoded = FullnameCodec.encode(id);
+		if(encoded != FullnameCodec.NOT_PACKABLE)
+			packed.add(encoded);
+		else
+			unpacked.add(id);
+	}
+
+	@Override
+	public boolean containsFullname(String id) {
+		long encoded = FullnameCodec.encode(id);
+		if(encoded != FullnameCodec.NOT_PACKABLE)
+			return packed.contains(encoded);
+		return unpacked.contains(id);
+	}
+	
+	@Override
+	public Iterable<String> getFullnames() {
+		List<String> result = new ArrayList<>(size());
+		for(long value : packed.toArray()) {
+			result.add(FullnameCodec.decode(value));
+		}
+		result.addAll(unpacked);
+		return result;
+	}
+	
+	/**
+	 * Gets the number of fullnames in this database
+	 * 
+	 * @return the number of fullnames remembered
+	 */
+	@Override
+	public int size() {
+		return packed.size() + unpacked.size();
+	}
+	
+	/**
+	 * Counts the packed set exactly and estimates each fullname that
+	 * could not be packed as a string in a hash set
+	 */
+	@Override
+	public long estimatedBytes() {
+		return packed.estimatedBytes() + UNPACKED_BYTES * unpacked.size();
+	}
+	
+	/**
+	 * Saves the database to the specified file
+	 * @param file the file to save to
+	 */
+	public void save(File file) {
+		try(BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
+			for(long value : packed.toArray()) {
+				bw.append(FullnameCodec.decode(value)).append("\n");
+			}
+			for(String str : unpacked) {
+				bw.append(str).append("\n");
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Saves the database to the specified file as a {@link FullnameSnapshot}
+	 * 
+	 * @param file the file to save to
+	 * @param compress if the snapshot should be compressed
+	 */
+	public void saveSnapshot(File file, boolean compress) {
+		try {
+			FullnameSnapshot.write(file, packed.toArray(), null, new ArrayList<>(unpacked), null, compress);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Loads the database from the specified file, which may be either
+	 * a text file or a {@link FullnameSnapshot}
+	 * @param file the file to load from
+	 */
+	public void load(File file) {
+		if(FullnameSnapshot.isSnapshot(file)) {
+			loadSnapshot(file);
+			return;
+		}
+		
+		try(BufferedReader br = new BufferedReader(new FileReader(file))) {
+			String ln;
+			
+			while((ln = br.readLine()) != null) {
+				int space = ln.indexOf(' ');
+				addFullname(space < 0 ? ln : ln.substring(0, space));
+			}
+		}catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Loads the database from the specified {@link FullnameSnapshot}
+	 * @param file the file to load from
+	 */
+	private void loadSnapshot(File file) {
+		try {
+			FullnameSnapshot.read(file, new FullnameSnapshot.Sink() {
+				@Override
+				public void begin(int packedCount, int unpackedCount) {
+					if(packed.size() == 0)
+						packed = new LongHashSet(packedCount);
+				}
+				
+				@Override
+				public void packed(long value, long addedAt) {
+					packed.add(value);
+				}
+				
+				@Override
+				public void unpacked(String id, long addedAt) {
+					unpacked.add(id);
+				}
+			});
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,344 @@
+package me.timothy.bots.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link MappedFullnameDatabase} that several bot processes on the
+ * same host can share, so a fullname handled by one is skipped by the
+ * rest. Every operation holds a {@link FileLock} on a lock file next to
+ * the hash file: a shared lock for lookups and an exclusive lock for
+ * adds, so {@link #addIfAbsent(String)} and
+ * {@link #addAllIfAbsent(List)} claim fullnames atomically across
+ * processes and each thing is handled by exactly one of them.
+ * <br><br>
+ * Every process maps the same file, so an add is visible to the others
+ * as soon as its lock is released. When the file grows, the old file is
+ * marked retired before it is replaced; other processes notice the mark
+ * the next time they take the lock and map the new file instead. The
+ * strings file for fullnames that cannot be packed is only ever
+ * appended to, and each process reads whatever was appended since it
+ * last looked.
+ * <br><br>
+ * File locks are held by the whole JVM, so each process should open
+ * the store exactly once and share that instance between its threads.
+ *
+ * @author Timothy
+ */
+public class SharedFullnameDatabase extends MappedFullnameDatabase {
+	/** The offset in the header of the flag set once a file has been replaced */
+	private static final int RETIRED_OFFSET = 16;
+
+	/** The lock file that every process locks */
+	private FileChannel lockChannel;
+
+	/** How much of the strings file has been read */
+	private long stringsOffset;
+
+	/**
+	 * Opens or creates the shared database at the specified file with
+	 * the default capacity.
+	 *
+	 * @param file the hash file
+	 */
+	public SharedFullnameDatabase(File file) {
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Opens or creates the shared database at the specified file. The
+	 * capacity is only used if the file does not exist yet.
+	 *
+	 * @param file the hash file
+	 * @param initialCapacity the number of slots in a new file, rounded up to a power of 2
+	 */
+	public SharedFullnameDatabase(File file, int initialCapacity) {
+		super(createIfMissing(file, initialCapacity), initialCapacity);
+
+		try {
+			lockChannel = openLockFile(file);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		FileLock lock = lock(true);
+		try {
+			unpacked.clear();
+			stringsOffset = 0;
+			refresh();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			release(lock);
+		}
+	}
+
+	@Override
+	public synchronized void addFullname(String id) {
+		FileLock lock = lock(false);
+		try {
+			refresh();
+			super.addFullname(id);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			release(lock);
+		}
+	}
+
+	@Override
+	public synchronized boolean containsFullname(String id) {
+		FileLock lock = lock(true);
+		try {
+			refresh();
+			return super.containsFullname(id);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			release(lock);
+		}
+	}
+
+	/**
+	 * Checks and adds the fullname while holding the exclusive lock, so
+	 * only one process is ever told that it added a given fullname.
+	 */
+	@Override
+	public synchronized boolean addIfAbsent(String id) {
+		FileLock lock = lock(false);
+		try {
+			refresh();
+			if(super.containsFullname(id))
+				return false;
+			super.addFullname(id);
+			return true;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			release(lock);
+		}
+	}
+
+	/**
+	 * Checks and adds every fullname under a single exclusive lock
+	 */
+	@Override
+	public synchronized List<String> addAllIfAbsent(List<String> ids) {
+		List<String> result = new ArrayList<>();
+		FileLock lock = lock(false);
+		try {
+			refresh();
+			for(String id : ids) {
+				if(!super.containsFullname(id)) {
+					super.addFullname(id);
+					result.add(id);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			release(lock);
+		}
+		return result;
+	}
+
+	/**
+	 * Checks every fullname under a single shared lock
+	 */
+	@Override
+	public synchronized List<String> filterUnseen(List<String> ids) {
+		List<String> result = new ArrayList<>();
+		FileLock lock = lock(true);
+		try {
+			refresh();
+			for(String id : ids) {
+				if(!super.containsFullname(id))
+					result.add(id);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			release(lock);
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized Iterable<String> getFullnames() {
+		FileLock lock = lock(true);
+		try {
+			refresh();
+			return super.getFullnames();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			release(lock);
+		}
+	}
+
+	@Override
+	public synchronized int size() {
+		FileLock lock = lock(true);
+		try {
+			refresh();
+			return super.size();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			release(lock);
+		}
+	}
+
+	@Override
+	public synchronized void flush() {
+		super.flush();
+	}
+
+	/**
+	 * Flushes the mapping and closes the hash and lock files
+	 */
+	@Override
+	public synchronized void close() {
+		super.close();
+		try {
+			lockChannel.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Marks the current file as retired so the other processes map the
+	 * grown file instead
+	 */
+	@Override
+	protected void retire() {
+		map.putInt(RETIRED_OFFSET, 1);
+		map.force();
+	}
+
+	/**
+	 * Appends the fullname to the strings file unless another process
+	 * already has. Must be called while holding the exclusive lock.
+	 */
+	@Override
+	protected void addUnpacked(String id) {
+		if(unpacked.contains(id))
+			return;
+
+		try(FileOutputStream fos = new FileOutputStream(stringsFile, true)) {
+			fos.write((id + "\n").getBytes(StandardCharsets.UTF_8));
+			stringsOffset = fos.getChannel().position();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		unpacked.add(id);
+	}
+
+	/**
+	 * Catches up with the other processes: maps the current file if the
+	 * mapped one was retired, and reads any fullnames appended to the
+	 * strings file. Must be called while holding a lock.
+	 *
+	 * @throws IOException if an i/o exception occurs
+	 */
+	private void refresh() throws IOException {
+		if(map.getInt(RETIRED_OFFSET) != 0) {
+			channel.close();
+			open();
+			logger.debug("Remapped " + file + " after another process grew it to " + capacity + " slots");
+		}
+
+		if(!stringsFile.exists() || stringsFile.length() <= stringsOffset)
+			return;
+
+		try(RandomAccessFile raf = new RandomAccessFile(stringsFile, "r")) {
+			byte[] bytes = new byte[(int) (raf.length() - stringsOffset)];
+			raf.seek(stringsOffset);
+			raf.readFully(bytes);
+
+			int start = 0;
+			for(int i = 0; i < bytes.length; i++) {
+				if(bytes[i] != '\n')
+					continue;
+				if(i > start)
+					unpacked.add(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+				start = i + 1;
+			}
+			stringsOffset += start;
+		}
+	}
+
+	/**
+	 * Creates the hash file while holding the exclusive lock, so that
+	 * two processes starting at once do not both create it.
+	 *
+	 * @param file the hash file
+	 * @param initialCapacity the number of slots in a new file, rounded up to a power of 2
+	 * @return the file
+	 */
+	private static File createIfMissing(File file, int initialCapacity) {
+		int capacity = 16;
+		while(capacity < initialCapacity)
+			capacity <<= 1;
+
+		try(FileChannel lockChannel = openLockFile(file)) {
+			FileLock lock = lockChannel.lock();
+			try {
+				if(!file.exists() || file.length() == 0)
+					createFile(file, capacity);
+			} finally {
+				lock.release();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return file;
+	}
+
+	/**
+	 * Locks the lock file, blocking until the lock is available. Every
+	 * caller releases it with {@link #release(FileLock)} in a finally block.
+	 *
+	 * @param shared true for a shared lock, false for an exclusive lock
+	 * @return the lock
+	 */
+	private FileLock lock(boolean shared) {
+		try {
+			return lockChannel.lock(0, Long.MAX_VALUE, shared);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Releases a lock taken by {@link #lock(boolean)}
+	 *
+	 * @param lock the lock
+	 */
+	private void release(FileLock lock) {
+		try {
+			lock.release();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Opens the lock file for the hash file, creating it if necessary
+	 *
+	 * @param file the hash file
+	 * @return the open lock file
+	 * @throws IOException if an i/o exception occurs
+	 */
+	private static FileChannel openLockFile(File file) throws IOException {
+		return new RandomAccessFile(file.getPath() + ".lock", "rw").getChannel();
+	}
+}
@@ -0,0 +1,327 @@
+package me.timothy.bots.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import me.timothy.bots.Database;
+
+/**
+ * A database that uses constant memory no matter how long the bot
+ * runs, by relying on reddit ids of each kind increasing over time.
+ * For each kind (t1 comments, t3 links, t4 messages, ...) it keeps the
+ * most recent ids it was given, up to the window size. Once the window
+ * is full the smallest id is forgotten and becomes the floor; anything
+ * at or below the floor is treated as already seen, anything above the
+ * highest id (the watermark) as never seen, and anything in between is
+ * looked up in the window.
+ * <br><br>
+ * This trades exactness for memory: a thing that first shows up in a
+ * listing long after newer things of the same kind were handled (for
+ * example a comment approved out of the spam filter days later) is
+ * skipped. The window should comfortably exceed how many ids of a kind
+ * are handled between a thing being created and it leaving the listing.
+ * <br><br>
+ * Fullnames that {@link FullnameCodec} cannot pack are kept in a
+ * separate window of the same size. {@link #load(File)} also accepts a
+ * file saved by {@link FlatFileDatabase}, in any of its formats.
+ * <br><br>
+ * Everything at or below a floor is seen without being remembered, so
+ * this database cannot list its fullnames: {@link #getFullnames()}
+ * throws, and it cannot be put behind a {@link BloomFilterDatabase}.
+ *
+ * @author Timothy
+ */
+public class WatermarkDatabase extends Database {
+	/** The default number of ids of each kind that are remembered exactly */
+	public static final int DEFAULT_WINDOW = 10000;
+
+	/** Prefixes the lines in the saved file that hold a kind's floor and watermark */
+	private static final String WATERMARK_PREFIX = "watermark ";
+
+	/** The largest kind a fullname may have */
+	private static final int MAX_KIND = 9;
+
+	/** The number of ids of each kind that are remembered exactly */
+	private int window;
+
+	/** The window for each kind, indexed by kind */
+	private KindWindow[] kinds;
+
+	/** The most recent fullnames that could not be packed */
+	private LinkedHashSet<String> unpacked;
+
+	/**
+	 * Creates an empty watermark database with the default window
+	 */
+	public WatermarkDatabase() {
+		this(DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Creates an empty watermark database
+	 *
+	 * @param window the number of ids of each kind to remember exactly
+	 */
+	public WatermarkDatabase(int window) {
+		if(window < 1)
+			throw new IllegalArgumentException("window must be positive, got " + window);
+
+		this.window = window;
+		this.kinds = new KindWindow[MAX_KIND + 1];
+		for(int i = 1; i <= MAX_KIND; i++) {
+			kinds[i] = new KindWindow();
+		}
+		this.unpacked = new LinkedHashSet<>();
+	}
+
+	@Override
+	public void addFullname(String id) {
+		long encoded = FullnameCodec.encode(id);
+		if(encoded == FullnameCodec.NOT_PACKABLE) {
+			unpacked.add(id);
+			if(unpacked.size() > window) {
+				Iterator<String> iter = unpacked.iterator();
+				iter.next();
+				iter.remove();
+			}
+			return;
+		}
+
+		kinds[FullnameCodec.kind(encoded)].add(FullnameCodec.id(encoded), window);
+	}
+
+	@Override
+	public boolean containsFullname(String id) {
+		long encoded = FullnameCodec.encode(id);
+		if(encoded == FullnameCodec.NOT_PACKABLE)
+			return unpacked.contains(id);
+
+		return kinds[FullnameCodec.kind(encoded)].contains(FullnameCodec.id(encoded));
+	}
+
+	/**
+	 * Always throws, since fullnames at or below the floor of their kind
+	 * are contained without being remembered. Listing only the windows
+	 * would leave out fullnames that {@link #containsFullname(String)}
+	 * reports as present.
+	 *
+	 * @throws UnsupportedOperationException always
+	 * @see #getWindowFullnames()
+	 */
+	@Override
+	public Iterable<String> getFullnames() {
+		throw new UnsupportedOperationException("WatermarkDatabase cannot list the fullnames at or below its floors");
+	}
+
+	/**
+	 * Gets the fullnames that are remembered exactly. Fullnames at or
+	 * below the floor of their kind are contained but not included.
+	 *
+	 * @return the fullnames in the windows
+	 */
+	public List<String> getWindowFullnames() {
+		List<String> result = new ArrayList<>();
+		for(int kind = 1; kind <= MAX_KIND; kind++) {
+			for(long id : kinds[kind].recent) {
+				result.add(fullname(kind, id));
+			}
+		}
+		result.addAll(unpacked);
+		return result;
+	}
+
+	/**
+	 * Gets the highest id of the specified kind that has been added
+	 *
+	 * @param kind the kind, i.e. 1 for comments
+	 * @return the watermark, or -1 if nothing of that kind has been added
+	 */
+	public long getWatermark(int kind) {
+		return kinds[kind].mark;
+	}
+
+	/**
+	 * Gets the id of the specified kind at or below which everything
+	 * is treated as seen
+	 *
+	 * @param kind the kind, i.e. 1 for comments
+	 * @return the floor, or -1 if no id of that kind has left the window
+	 */
+	public long getFloor(int kind) {
+		return kinds[kind].floor;
+	}
+
+	/**
+	 * Saves the floor and watermark of each kind, followed by every
+	 * fullname in the windows.
+	 *
+	 * @param file the file to save to
+	 */
+	public void save(File file) {
+		try(BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
+			for(int kind = 1; kind <= MAX_KIND; kind++) {
+				KindWindow kw = kinds[kind];
+				if(kw.mark < 0)
+					continue;
+				bw.append(WATERMARK_PREFIX).append("t" + kind).append(" ")
+				.append(Long.toString(kw.floor)).append(" ")
+				.append(Long.toString(kw.mark)).append("\n");
+			}
+			for(String str : getWindowFullnames()) {
+				bw.append(str).append("\n");
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Loads the database from the specified file, which may have been
+	 * saved by this database or by {@link FlatFileDatabase}, either as
+	 * text or as a {@link FullnameSnapshot}. The times a flat file records
+	 * next to each fullname are not needed and are skipped.
+	 *
+	 * @param file the file to load from
+	 * @throws IllegalArgumentException if a line is not in any of those formats
+	 */
+	public void load(File file) {
+		if(FullnameSnapshot.isSnapshot(file)) {
+			loadSnapshot(file);
+			return;
+		}
+
+		try(BufferedReader br = new BufferedReader(new FileReader(file))) {
+			String ln;
+
+			while((ln = br.readLine()) != null) {
+				if(ln.startsWith(WATERMARK_PREFIX)) {
+					String[] spl = ln.split(" ");
+					KindWindow kw = kinds[Integer.parseInt(spl[1].substring(1))];
+					kw.floor = Math.max(kw.floor, Long.parseLong(spl[2]));
+					kw.mark = Math.max(kw.mark, Long.parseLong(spl[3]));
+				}else if(!ln.isEmpty()) {
+					addFullname(parseFullname(ln));
+				}
+			}
+		}catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Gets the fullname on a line saved by {@link FlatFileDatabase}, which
+	 * is either just the fullname or the fullname, a space, and the time
+	 * it was added
+	 *
+	 * @param ln the line, without a newline
+	 * @return the fullname
+	 * @throws IllegalArgumentException if the line is neither
+	 */
+	private static String parseFullname(String ln) {
+		int space = ln.indexOf(' ');
+		if(space < 0)
+			return ln;
+
+		try {
+			Long.parseLong(ln.substring(space + 1));
+		}catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Not a fullname line: " + ln);
+		}
+		return ln.substring(0, space);
+	}
+
+	/**
+	 * Loads the database from the specified {@link FullnameSnapshot}
+	 *
+	 * @param file the file to load from
+	 */
+	private void loadSnapshot(File file) {
+		try {
+			FullnameSnapshot.read(file, new FullnameSnapshot.Sink() {
+				@Override
+				public void begin(int packedCount, int unpackedCount) {
+				}
+
+				@Override
+				public void packed(long packed, long addedAt) {
+					addFullname(FullnameCodec.decode(packed));
+				}
+
+				@Override
+				public void unpacked(String id, long addedAt) {
+					addFullname(id);
+				}
+			});
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Gets the fullname for the kind and id
+	 *
+	 * @param kind the kind
+	 * @param id the id
+	 * @return the fullname
+	 */
+	private static String fullname(int kind, long id) {
+		return "t" + kind + "_" + Long.toString(id, 36);
+	}
+
+	/**
+	 * The watermark, floor and window of recent ids for one kind
+	 *
+	 * @author Timothy
+	 */
+	private static class KindWindow {
+		/** The highest id that has been added, or -1 */
+		long mark = -1;
+
+		/** Everything at or below this id is treated as seen, or -1 */
+		long floor = -1;
+
+		/** The ids above the floor that have been added */
+		TreeSet<Long> recent = new TreeSet<>();
+
+		/**
+		 * Adds the id, forgetting the smallest ids if the window is full
+		 *
+		 * @param id the id
+		 * @param window the number of ids to remember exactly
+		 */
+		void add(long id, int window) {
+			if(id <= floor)
+				return;
+
+			recent.add(id);
+			if(id > mark)
+				mark = id;
+			while(recent.size() > window) {
+				floor = recent.pollFirst();
+			}
+		}
+
+		/**
+		 * Checks if the id has been seen
+		 *
+		 * @param id the id
+		 * @return if the id has been added, or is at or below the floor
+		 */
+		boolean contains(long id) {
+			if(id > mark)
+				return false;
+			if(id <= floor)
+				return true;
+			return recent.contains(id);
+		}
+	}
+}
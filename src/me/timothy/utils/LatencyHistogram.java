@@ -0,0 +1,125 @@
+package me.timothy.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds with one bucket per power
+ * of two, so recording is a few atomic increments and percentiles are
+ * accurate to within a factor of two. Safe to record into from any
+ * number of threads.
+ *
+ * @author Timothy
+ */
+public class LatencyHistogram {
+	/** The number of buckets; bucket i holds durations below 2^(i+1) nanoseconds */
+	private static final int BUCKETS = 64;
+
+	/** The number of durations in each bucket */
+	private AtomicLongArray buckets;
+
+	/** The number of durations recorded */
+	private AtomicLong count;
+
+	/** The sum of every duration recorded, in nanoseconds */
+	private AtomicLong totalNanos;
+
+	/** The longest duration recorded, in nanoseconds */
+	private AtomicLong maxNanos;
+
+	/**
+	 * Creates an empty histogram
+	 */
+	public LatencyHistogram() {
+		buckets = new AtomicLongArray(BUCKETS);
+		count = new AtomicLong();
+		totalNanos = new AtomicLong();
+		maxNanos = new AtomicLong();
+	}
+
+	/**
+	 * Records one duration
+	 *
+	 * @param nanos the duration in nanoseconds; negative durations are treated as 0
+	 */
+	public void record(long nanos) {
+		nanos = Math.max(0, nanos);
+		buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos | 1));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+
+		long max;
+		while(nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos));
+	}
+
+	/**
+	 * Gets the number of durations recorded
+	 *
+	 * @return the count
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Gets the sum of every duration recorded
+	 *
+	 * @return the total in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	/**
+	 * Gets the mean duration
+	 *
+	 * @return the mean in nanoseconds, or 0 if nothing was recorded
+	 */
+	public double getMeanNanos() {
+		long n = count.get();
+		return n == 0 ? 0 : totalNanos.get() / (double) n;
+	}
+
+	/**
+	 * Gets the longest duration recorded
+	 *
+	 * @return the maximum in nanoseconds
+	 */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * Gets an upper bound on the duration that the specified fraction
+	 * of recorded durations did not exceed
+	 *
+	 * @param fraction the percentile as a fraction, i.e. 0.99
+	 * @return the upper bound of the bucket holding the percentile in nanoseconds, or 0 if nothing was recorded
+	 */
+	public long getPercentileNanos(double fraction) {
+		long n = count.get();
+		if(n == 0)
+			return 0;
+
+		long target = (long) Math.ceil(fraction * n);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if(seen >= target)
+				return Math.min(maxNanos.get(), i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1);
+		}
+		return maxNanos.get();
+	}
+
+	/**
+	 * Forgets every recorded duration
+	 */
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+}
@@ -0,0 +1,222 @@
+package me.timothy.utils;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs using open addressing with linear
+ * probing over a single {@code long[]}. There are no boxed values
+ * and no per-entry objects, so a lookup is a hash followed by a
+ * short scan of adjacent array slots.
+ * <br><br>
+ * Zero is used to mark empty slots and so cannot be stored.
+ * 
+ * @author Timothy
+ */
+public class LongHashSet {
+	/** The fraction of slots that may be used before the table doubles */
+	private static final double MAX_LOAD = 0.5;
+	
+	/** The slots; 0 means empty. Length is always a power of 2 */
+	private long[] slots;
+	
+	/** The number of values in the set */
+	private int size;
+	
+	/** The size at which the table is doubled */
+	private int resizeAt;
+	
+	/**
+	 * Creates an empty set with room for a few values
+	 */
+	public LongHashSet() {
+		this(16);
+	}
+	
+	/**
+	 * Creates an empty set that can hold the expected number of
+	 * values without resizing.
+	 * 
+	 * @param expectedSize the number of values expected
+	 */
+	public LongHashSet(int expectedSize) {
+		int capacity = 16;
+		while(capacity * MAX_LOAD < expectedSize)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+	
+	/**
+	 * Adds the value to the set
+	 * 
+	 * @param value the value to add, which may not be 0
+	 * @return true if the value was added, false if it was already present
+	 * @throws IllegalArgumentException if value is 0
+	 */
+	public boolean add(long value) {
+		if(value == 0)
+			throw new IllegalArgumentException("0 cannot be stored in a LongHashSet");
+		
+		int mask = slots.length - 1;
+		int i = mix(value) & mask;
+		while(slots[i] != 0) {
+			if(slots[i] == value)
+				return false;
+			i = (i + 1) & mask;
+		}
+		
+		slots[i] = value;
+		if(++size >= resizeAt)
+			rehash(slots.length << 1);
+		return true;
+	}
+	
+	/**
+	 * Checks if the value is in the set
+	 * 
+	 * @param value the value to check
+	 * @return if the value is in the set
+	 */
+	public boolean contains(long value) {
+		if(value == 0)
+			return false;
+		
+		int mask = slots.length - 1;
+		int i = mix(value) & mask;
+		long slot;
+		while((slot = slots[i]) != 0) {
+			if(slot == value)
+				return true;
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+	
+	/**
+	 * Removes the value from the set. The cluster following the
+	 * removed slot is shifted back so no tombstones are needed.
+	 * 
+	 * @param value the value to remove
+	 * @return true if the value was removed, false if it was not present
+	 */
+	public boolean remove(long value) {
+		if(value == 0)
+			return false;
+		
+		int mask = slots.length - 1;
+		int i = mix(value) & mask;
+		while(slots[i] != value) {
+			if(slots[i] == 0)
+				return false;
+			i = (i + 1) & mask;
+		}
+		
+		slots[i] = 0;
+		size--;
+		
+		int j = i;
+		while(true) {
+			j = (j + 1) & mask;
+			long moved = slots[j];
+			if(moved == 0)
+				return true;
+			
+			int home = mix(moved) & mask;
+			// move it back if its home is not cyclically within (i, j]
+			boolean between = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+			if(!between) {
+				slots[i] = moved;
+				slots[j] = 0;
+				i = j;
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of values in the set
+	 * 
+	 * @return the number of values
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Removes every value from the set, keeping its capacity
+	 */
+	public void clear() {
+		Arrays.fill(slots, 0);
+		size = 0;
+	}
+	
+	/**
+	 * Copies the values in the set into a new array, in no
+	 * particular order.
+	 * 
+	 * @return the values in the set
+	 */
+	public long[] toArray() {
+		long[] result = new long[size];
+		int n = 0;
+		for(long slot : slots) {
+			if(slot != 0)
+				result[n++] = slot;
+		}
+		return result;
+	}
+	
+	/**
+	 * Estimates the number of bytes used by this set
+	 * 
+	 * @return the approximate memory usage in bytes
+	 */
+	public long estimatedBytes() {
+		return 16L + 8L * slots.length;
+	}
+	
+	/**
+	 * Moves every value into a new table of the specified capacity
+	 * 
+	 * @param capacity the new capacity, a power of 2
+	 */
+	private void rehash(int capacity) {
+		long[] old = slots;
+		allocate(capacity);
+		
+		int mask = capacity - 1;
+		for(long value : old) {
+			if(value == 0)
+				continue;
+			
+			int i = mix(value) & mask;
+			while(slots[i] != 0)
+				i = (i + 1) & mask;
+			slots[i] = value;
+		}
+	}
+	
+	/**
+	 * Replaces the slots with an empty table of the specified capacity
+	 * 
+	 * @param capacity the capacity, a power of 2
+	 */
+	private void allocate(int capacity) {
+		slots = new long[capacity];
+		resizeAt = (int) (capacity * MAX_LOAD);
+	}
+	
+	/**
+	 * Spreads the bits of the value so that sequential values,
+	 * which reddit ids are, do not form long probe chains.
+	 * 
+	 * @param value the value
+	 * @return a well-mixed hash of the value
+	 */
+	public static int mix(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return (int) value;
+	}
+}